@@ -3,6 +3,8 @@ package com.github.vantonov1.basalt.acl;
 import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.Page;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
 import com.github.vantonov1.basalt.repo.SearchService;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
@@ -11,6 +13,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manages ACLs (Access Control Lists) attached to {@link Node Nodes}.
@@ -27,7 +30,7 @@ public interface AclService {
     int MASK_WRITE = 2;
     int MASK_DELETE = 4;
 
-    String AUTHORITY_WORLD = "S0000000-0001-0001-0000-000000000000";
+    String AUTHORITY_WORLD = QueryBuilder.AUTHORITY_WORLD;
     Map<String, Integer> EVERYONE_READ_WRITE = Collections.singletonMap(AUTHORITY_WORLD, MASK_READ | MASK_WRITE);
     Map<String, Integer> EVERYONE_READ = Collections.singletonMap(AUTHORITY_WORLD, MASK_READ);
 
@@ -39,6 +42,13 @@ public interface AclService {
      */
     void addAcl(@NonNull String id, @NonNull Map<String, Integer> acl);
 
+    /**
+     * Bulk version of {@link #addAcl(String, Map)} - items are inserted in one batch, and nodes sharing the resulting ACL are updated together
+     * @param ids nodes GUIDs
+     * @param acl mapping between authorities and access masks
+     */
+    void addAcl(@NonNull Collection<String> ids, @NonNull Map<String, Integer> acl);
+
     /**
      * Replace or create ACL
      * @param id node GUID
@@ -46,6 +56,14 @@ public interface AclService {
      */
     void setAcl(@NonNull String id, @Nullable Map<String, Integer> acl);
 
+    /**
+     * Bulk version of {@link #setAcl(String, Map)}, e.g. to apply permission template to imported nodes - existing items are removed by one statement per batch of nodes,
+     * new items are inserted in one batch
+     * @param ids nodes GUIDs
+     * @param acl mapping between authorities and access masks, null or empty to remove ACL
+     */
+    void setAcl(@NonNull Collection<String> ids, @Nullable Map<String, Integer> acl);
+
     /**
      * Replace or create ACL for the given authority.
      * @param id node GUID
@@ -55,11 +73,27 @@ public interface AclService {
     void setAcl(@NonNull String id, @NonNull String authority, @Nullable Integer mask);
 
     /**
-     * Remove all ACLs for the given authority. Should be called if authority is removed
+     * Remove all ACLs for the given authority. Should be called if authority is removed.
+     * Nodes are processed in chunks of acl.removal.batch (1000 by default), but all in the current transaction - use {@link #removeACLsAsync} for large groups
      * @param authority GUID
      */
     void removeACLs(@NonNull String authority);
 
+    /**
+     * Remove all ACLs for the given authority in background. Every chunk of acl.removal.batch nodes is processed in its own transaction,
+     * so locks are held only for the chunk. Should be called outside of transaction, nodes being processed could be seen with old ACL until the job is finished
+     * @param authority GUID
+     * @return future, completed with number of processed nodes
+     */
+    @NonNull CompletableFuture<Integer> removeACLsAsync(@NonNull String authority);
+
+    /**
+     * Remove items of the authority from ACLs of the nodes
+     * @param ids nodes GUIDs
+     * @param authority GUID
+     */
+    void removeAcl(@NonNull Collection<String> ids, @NonNull String authority);
+
     /**
      * Get ACL for the node. If node has no ACL set, primary parents hierarchy will be checked
      * @param id node GUID
@@ -116,10 +150,33 @@ public interface AclService {
      * Intended to be used with {@link SearchService#search SearchService.search()} or {@link NodeService#getChildAssoc NodeService.getChildAssoc()}
      * to return only nodes visible to the current authority
      * <p>Method uses bulk loading of ACLs and primary parents (using {@link NodeService#getPrimaryParents NodeService.getPrimaryParents()}) and is much faster on large collections than checking access one-by-one using {@link #isReadableBy}</p>
+     * <p>Every distinct ACL and every primary parent is evaluated once. Collections larger than acl.filter.parallel.threshold (100000 by default) are evaluated in parallel</p>
      * @param ids nodes GUIDs
      * @param authority GUID
      * @param membership collection of containing authority GUIDs
      * @return nodes GUIDs visible to the given authority
      */
     @NonNull List<String> filterReadable(@Nullable Collection<String> ids, @Nullable String authority, @Nullable Collection<String> membership);
+
+    /**
+     * Get page of children visible to the authority, sorted by property. Intended to list large folders instead of {@link NodeService#getChildAssoc NodeService.getChildAssoc()} and {@link #filterReadable}:
+     * page is computed in SQL by {@link SearchService#search(QueryBuilder, String, String, int) SearchService.search()} with {@link QueryBuilder#readableBy} filter, so the whole list of children is never loaded
+     * @param parent parent node GUID
+     * @param assocType association type, null for any
+     * @param sortProperty property name
+     * @param authority GUID
+     * @param membership collection of containing authority GUIDs
+     * @param continuation {@link Page#next} of the previous page, null for the first page
+     * @param pageSize max number of nodes on page
+     * @return page of children GUIDs visible to the given authority
+     */
+    @NonNull Page<String> getReadableChildren(@NonNull String parent, @Nullable String assocType, @NonNull String sortProperty,
+                                              @Nullable String authority, @Nullable Collection<String> membership, @Nullable String continuation, int pageSize);
+
+    /**
+     * Recompute effective ACL of every node (bst_node.acl_id) from explicit ACLs, walking primary parents hierarchy from roots.
+     * Effective ACLs are maintained by this service, so method is needed only once after upgrade from the version without them - it is called automatically at startup,
+     * if some node with explicit ACL has no effective one
+     */
+    void rebuildEffectiveAcls();
 }
@@ -0,0 +1,59 @@
+package com.github.vantonov1.basalt.acl;
+
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Manages membership of authorities in groups. Groups could contain other groups, so membership is transitive.
+ * Membership, resolved by {@link #getMembership}, is intended to be passed to {@link AclService} methods
+ * <p>Transitive membership is cached per authority using {@link TransactionalCacheManager TransactionalCacheManager}. When group is changed,
+ * only cached membership of its (direct and nested) members is invalidated</p>
+ */
+public interface AuthorityService {
+    /**
+     * Add members to group. Already existing members are ignored
+     * @param group group GUID
+     * @param members authority GUIDs, could be groups themselves
+     */
+    void addMembers(@NonNull String group, @NonNull Collection<String> members);
+
+    /**
+     * Remove direct member from group
+     * @param group group GUID
+     * @param member authority GUID
+     */
+    void removeMember(@NonNull String group, @NonNull String member);
+
+    /**
+     * Remove authority from all groups, and all members from it, if it is group. Should be called if authority is removed, together with {@link AclService#removeACLs}
+     * @param authority GUID
+     */
+    void removeAuthority(@NonNull String authority);
+
+    /**
+     * @param group group GUID
+     * @return direct members of the group
+     */
+    @NonNull Set<String> getMembers(@NonNull String group);
+
+    /**
+     * Get all groups containing the authority, directly or through nested groups.
+     * Groups are ordered by nesting distance - direct groups first, then groups containing them, and so on (groups at the same distance by GUID).
+     * {@link AclService} lets the first group with ACL item decide, so entry for nearer group takes precedence over entry for more distant one
+     * @param authority GUID
+     * @return GUIDs of containing groups, ready to be used as membership in {@link AclService} methods
+     */
+    @NonNull Set<String> getMembership(@Nullable String authority);
+
+    /**
+     * Bulk version of {@link #getMembership(String)}, expands membership of all uncached authorities together, one query per nesting level
+     * @param authorities GUIDs
+     * @return GUIDs of containing groups by authority, ordered as by {@link #getMembership(String)}
+     */
+    @NonNull Map<String, Set<String>> getMembership(@NonNull Collection<String> authorities);
+}
@@ -1,13 +1,17 @@
 package com.github.vantonov1.basalt.acl.impl;
 
 import com.github.vantonov1.basalt.repo.AbstractJdbcDAO;
+import com.github.vantonov1.basalt.repo.Pair;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Component
@@ -28,6 +32,45 @@ class AclDAO extends AbstractJdbcDAO {
         return result;
     };
 
+    private static final ResultSetExtractor<List<ACE>> GET_ENTRIES = rs -> {
+        final List<ACE> result = new ArrayList<>();
+        while (rs.next()) {
+            result.add(new ACE(null, rs.getString("authority_id").trim(), rs.getShort("mask")));
+        }
+        return result;
+    };
+
+    private static final ResultSetExtractor<List<String>> GET_IDS = rs -> {
+        final List<String> result = new ArrayList<>();
+        int index = 0;
+        while (rs.next()) {
+            setFetchSize(rs, index++);
+            result.add(rs.getString(1));
+        }
+        return result;
+    };
+
+    private static final ResultSetExtractor<List<Pair<String, Long>>> GET_ACL_IDS = rs -> {
+        final List<Pair<String, Long>> result = new ArrayList<>();
+        int index = 0;
+        while (rs.next()) {
+            setFetchSize(rs, index++);
+            final Number aclId = (Number) rs.getObject("acl_id");
+            result.add(new Pair<>(rs.getString("id"), aclId != null ? aclId.longValue() : null));
+        }
+        return result;
+    };
+
+    private static final ResultSetExtractor<List<Pair<String, String>>> GET_CHILDREN = rs -> {
+        final List<Pair<String, String>> result = new ArrayList<>();
+        int index = 0;
+        while (rs.next()) {
+            setFetchSize(rs, index++);
+            result.add(new Pair<>(rs.getString("id"), rs.getString("parent_id")));
+        }
+        return result;
+    };
+
     public AclDAO(DataSource dataSource) {
         super(dataSource);
     }
@@ -40,22 +83,102 @@ class AclDAO extends AbstractJdbcDAO {
         return queryBulk("select * from bst_aces", "node_id", ids, -1, GET_ACES);
     }
 
-    public void createAces(String id, Collection<ACE> aces) {
-        if(aces.size() == 1) {
+    public void createAces(Collection<String> ids, Collection<ACE> aces) {
+        if (ids.size() == 1 && aces.size() == 1) {
             final ACE ace = aces.iterator().next();
-            update("insert into bst_aces (node_id, authority_id, mask) values (?, ?, ?)", id, ace.authorityId, ace.mask);
+            update("insert into bst_aces (node_id, authority_id, mask) values (?, ?, ?)", ids.iterator().next(), ace.authorityId, ace.mask);
         } else {
-            final List<Object[]> batch = aces.stream().map(ace -> new Object[]{id, ace.authorityId, ace.mask}).collect(Collectors.toList());
-            batchUpdate("insert into bst_aces (node_id, authority_id, mask) values (?, ?, ?)", batch);
+            final List<Object[]> batch = new ArrayList<>(ids.size() * aces.size());
+            for (String id : ids) {
+                for (ACE ace : aces) {
+                    batch.add(new Object[]{id, ace.authorityId, ace.mask});
+                }
+            }
+            batchUpdate("insert into bst_aces (node_id, authority_id, mask) values (?, ?, ?)", batch, 0);
         }
     }
 
-    public void removeAces(String id, String authority) {
-        new Query("delete from bst_aces").where("node_id", id).and("authority_id", authority).update();
+    public void removeAces(Collection<String> ids, String authority) {
+        for (List<String> batch : partition(ids)) {
+            new Query("delete from bst_aces").where("node_id", batch).and("authority_id", authority).update();
+        }
     }
 
     public void convertAcesTo(String id, int mask) {
         update("update bst_aces set mask = ? where node_id = ?", mask, id);
     }
 
+    /**
+     * @param maxRows 0 for all nodes, otherwise only first chunk of them. Uses bst_aces_acl_authority_id index
+     */
+    public List<String> getNodesWithAces(String authority, int maxRows) {
+        return new Query("select distinct node_id from bst_aces").where("authority_id", authority).setMaxRows(maxRows).run(GET_IDS);
+    }
+
+    /**
+     * @return pairs of node id and its effective ACL set id (null if node inherits nothing)
+     */
+    public List<Pair<String, Long>> getAclIds(Collection<String> ids) {
+        return queryBulk("select id, acl_id from bst_node", "id", ids, -1, GET_ACL_IDS);
+    }
+
+    public void setAclId(Collection<String> ids, Long aclId) {
+        for (List<String> batch : partition(ids)) {
+            final List<Object> args = new ArrayList<>(batch.size() + 1);
+            args.add(aclId);
+            args.addAll(batch);
+            update("update bst_node set acl_id = ? where id in (" + String.join(",", Collections.nCopies(batch.size(), "?")) + ")", args.toArray());
+        }
+    }
+
+    /**
+     * @return children of the nodes, which have no ACL of their own and so inherit ACL of the parent
+     */
+    public List<String> getInheritingChildren(Collection<String> parents) {
+        return queryBulk("select n.id from bst_node n where not exists (select 1 from bst_aces a where a.node_id = n.id)", "n.parent_id", parents, -1, GET_IDS);
+    }
+
+    /**
+     * @return pairs of child id and parent id
+     */
+    public List<Pair<String, String>> getChildren(Collection<String> parents) {
+        return queryBulk("select id, parent_id from bst_node", "parent_id", parents, -1, GET_CHILDREN);
+    }
+
+    /**
+     * @return true if some node with explicit ACL has no effective set, so effective sets were never computed - database is upgraded from the version without them
+     */
+    public boolean hasMissingAclIds() {
+        return !query("select a.node_id from bst_aces a join bst_node n on n.id = a.node_id where n.acl_id is null", 1, GET_IDS).isEmpty();
+    }
+
+    public List<String> getRoots() {
+        return query("select id from bst_node where parent_id is null", GET_IDS);
+    }
+
+    public List<ACE> getAclEntries(long aclId) {
+        return query("select authority_id, mask from bst_acl_entry where acl_id = ?", GET_ENTRIES, aclId);
+    }
+
+    /**
+     * @return items of the sets by set id, missing sets are not mapped
+     */
+    public Map<Long, List<ACE>> getAclEntries(Collection<Long> aclIds) {
+        final Map<Long, List<ACE>> result = new HashMap<>();
+        for (List<Long> batch : partition(aclIds)) {
+            query("select acl_id, authority_id, mask from bst_acl_entry where acl_id in (" + String.join(",", Collections.nCopies(batch.size(), "?")) + ")", rs -> {
+                while (rs.next()) {
+                    result.computeIfAbsent(rs.getLong("acl_id"), k -> new ArrayList<>()).add(new ACE(null, rs.getString("authority_id").trim(), rs.getShort("mask")));
+                }
+                return null;
+            }, batch.toArray());
+        }
+        return result;
+    }
+
+    public void createAcl(long aclId, Collection<ACE> entries) {
+        update("insert into bst_acl (id) values (?)", aclId);
+        batchUpdate("insert into bst_acl_entry (acl_id, authority_id, mask) values (?, ?, ?)",
+                entries.stream().map(ace -> new Object[]{aclId, ace.authorityId, ace.mask}).collect(Collectors.toList()));
+    }
 }
@@ -1,53 +1,123 @@
 package com.github.vantonov1.basalt.acl.impl;
 
 import com.github.vantonov1.basalt.acl.AclService;
+import com.github.vantonov1.basalt.cache.CacheLoader;
 import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
 import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.Page;
+import com.github.vantonov1.basalt.repo.Pair;
+import com.github.vantonov1.basalt.repo.PrimaryParentListener;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+import com.github.vantonov1.basalt.repo.RetryingTransactionHelper;
+import com.github.vantonov1.basalt.repo.SearchService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/**
+ * Explicit ACLs of nodes are kept in bst_aces. Every distinct ACL is also stored once as shared set in bst_acl/bst_acl_entry, with id derived from its content,
+ * and bst_node.acl_id points to the effective (explicit or inherited) set of every node, or is null if there is no ACL in the whole primary parents hierarchy.
+ * Effective set ids are updated in bulk for the whole inheriting subtree, when ACL is changed or node is moved, so permission check is one lookup of cached set
+ */
 @Service
 @SuppressWarnings("unused")
-class AclServiceImpl implements AclService {
+class AclServiceImpl implements AclService, CacheLoader, PrimaryParentListener {
 
     private static final String ACLS_CACHE = "ACLS";
+    private static final String ACL_IDS_CACHE = "aclIds";
+    private static final String ACL_SETS_CACHE = "aclSets";
+    private static final String ACL_GENERATION_CACHE = "aclGeneration";
+    private static final String GENERATION = "*";
+    private static final long NO_ACL = -1L;
     private static final List<ACE> EMPTY_ACES = new ArrayList<>();
 
+    private final Log logger = LogFactory.getLog(getClass());
     private final TransactionalCacheManager cacheManager;
     private final AclDAO aclDAO;
     private final NodeService nodeService;
+    private final SearchService searchService;
+    private final RetryingTransactionHelper transactionHelper;
+    private final TransactionTemplate nested;
+    private final AuthorityIndex authorities = new AuthorityIndex();
+    private final AtomicLong generations = new AtomicLong();
 
-    public AclServiceImpl(TransactionalCacheManager cacheManager, AclDAO aclDAO, NodeService nodeService) {
+    @Value("${acl.filter.parallel.threshold:100000}")
+    private int parallelThreshold;
+
+    @Value("${acl.invalidation.threshold:1000}")
+    private int invalidationThreshold;
+
+    @Value("${acl.removal.batch:1000}")
+    private int removalBatch;
+
+    public AclServiceImpl(TransactionalCacheManager cacheManager, AclDAO aclDAO, NodeService nodeService, SearchService searchService, PlatformTransactionManager transactionManager) {
         this.cacheManager = cacheManager;
         this.aclDAO = aclDAO;
         this.nodeService = nodeService;
+        this.searchService = searchService;
+        this.transactionHelper = new RetryingTransactionHelper(transactionManager);
+        this.nested = new TransactionTemplate(transactionManager);
+        this.nested.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
     }
 
     @Override
     public void addAcl(String id, Map<String, Integer> acl) {
         checkParam(id, "node id is null");
+        addAcl(Collections.singletonList(id), acl);
+    }
+
+    @Override
+    public void addAcl(Collection<String> ids, Map<String, Integer> acl) {
+        checkParam(ids, "node ids are null");
         checkParam(acl, "acl is null");
-        if (!acl.isEmpty()) {
-            createAces(id, acl);
+        if (!ids.isEmpty() && !acl.isEmpty()) {
+            createAces(ids, acl);
+            aclsChanged(ids);
         }
     }
 
     @Override
     public void setAcl(String id, Map<String, Integer> acl) {
         checkParam(id, "node id is null");
-        removeAces(id);
-        if (acl != null && !acl.isEmpty()) {
-            createAces(id, acl);
+        setAcl(Collections.singletonList(id), acl);
+    }
+
+    @Override
+    public void setAcl(Collection<String> ids, Map<String, Integer> acl) {
+        checkParam(ids, "node ids are null");
+        if (!ids.isEmpty()) {
+            removeAces(ids, null);
+            if (acl != null && !acl.isEmpty()) {
+                createAces(ids, acl);
+            }
+            aclsChanged(ids);
         }
     }
 
@@ -55,22 +125,43 @@ class AclServiceImpl implements AclService {
     public void setAcl(String id, String authority, Integer mask) {
         checkParam(id, "node id is null");
         checkParam(authority, "authority id is null");
-        removeAces(id, authority);
+        final List<String> ids = Collections.singletonList(id);
+        removeAces(ids, authority);
         if (mask != null && mask != 0) {
-            createAces(id, Collections.singletonMap(authority, mask));
+            createAces(ids, Collections.singletonMap(authority, mask));
+        }
+        aclsChanged(ids);
+    }
+
+    @Override
+    public void removeAcl(Collection<String> ids, String authority) {
+        checkParam(ids, "node ids are null");
+        checkParam(authority, "authority id is null");
+        if (!ids.isEmpty()) {
+            removeAces(ids, authority);
+            aclsChanged(ids);
         }
     }
 
     @Override
     public void removeACLs(String authority) {
         checkParam(authority, "authority id is null");
-        removeAces(null, authority);
+        int processed;
+        do {
+            processed = removeChunk(authority);
+        } while (processed > 0);
+    }
+
+    @Override
+    public CompletableFuture<Integer> removeACLsAsync(String authority) {
+        checkParam(authority, "authority id is null");
+        return removeChunksAsync(authority, 0);
     }
 
     @Override
     public Map<String, Integer> getAcl(String id) {
-        final List<ACE> aces = getInheritedAces(id);
-        return aces != null ? convertToAcl(aces) : null;
+        final AclSet acl = getEffectiveAcl(id);
+        return acl != null ? acl.toMap() : null;
     }
 
     @Override
@@ -80,8 +171,9 @@ class AclServiceImpl implements AclService {
         if (aces != null) {
             convertAcesTo(id, MASK_READ);
         } else {
-            createAces(id, EVERYONE_READ);
+            createAces(Collections.singletonList(id), EVERYONE_READ);
         }
+        aclsChanged(Collections.singletonList(id));
         return aces != null;
     }
 
@@ -92,8 +184,9 @@ class AclServiceImpl implements AclService {
         if (aces != null) {
             convertAcesTo(id, MASK_READ | MASK_WRITE);
         } else {
-            createAces(id, EVERYONE_READ_WRITE);
+            createAces(Collections.singletonList(id), EVERYONE_READ_WRITE);
         }
+        aclsChanged(Collections.singletonList(id));
         return aces != null;
     }
 
@@ -117,123 +210,376 @@ class AclServiceImpl implements AclService {
         if (ids == null) {
             return Collections.emptyList();
         }
-        final List<ACE> aces = getAces(ids);
-        if (aces == null || aces.isEmpty()) {
-            return new ArrayList<>(parentsHasAccess(ids, personId, membership));
+        final String[] array = ids.toArray(new String[0]);
+        final Map<String, Long> aclIds = getAclIds(ids);
+        final Map<Long, Integer> decisions = new HashMap<>();
+        decide(aclIds.values(), personId, membership, decisions);
+        // decisions are ready, so the rest is read-only and could be split between threads
+        final int[] decided = new int[array.length];
+        final IntStream positions = IntStream.range(0, array.length);
+        (array.length >= parallelThreshold ? positions.parallel() : positions).forEach(i -> decided[i] = getDecision(aclIds.get(array[i]), decisions));
+        final List<String> undecided = new ArrayList<>();
+        for (int i = 0; i < array.length; i++) {
+            if (decided[i] == AclSet.UNDECIDED) {
+                undecided.add(array[i]);
+            }
         }
-        final List<String> result = new ArrayList<>();
-        final Collection<String> left = new HashSet<>();
+        final Set<String> granted = undecided.isEmpty() ? Collections.emptySet() : getGrantedByParents(undecided, personId, membership, decisions);
+        final List<String> result = new ArrayList<>(array.length);
+        for (int i = 0; i < array.length; i++) {
+            if (decided[i] == AclSet.GRANTED || (decided[i] == AclSet.UNDECIDED && granted.contains(array[i]))) {
+                result.add(array[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Page<String> getReadableChildren(String parent, String assocType, String sortProperty, String authority, Collection<String> membership, String continuation, int pageSize) {
+        checkParam(parent, "parent id is null");
+        final QueryBuilder q = new QueryBuilder().childOf(parent, assocType).readableBy(authority, membership, MASK_READ);
+        return searchService.search(q, sortProperty, continuation, pageSize);
+    }
+
+    @Override
+    public void rebuildEffectiveAcls() {
+        Map<String, Long> level = new HashMap<>();
+        for (String root : aclDAO.getRoots()) {
+            level.put(root, null);
+        }
+        final Map<Map<String, Integer>, Long> saved = new HashMap<>();
+        while (!level.isEmpty()) {
+            for (Map.Entry<String, Map<String, Integer>> entry : getExplicitAcls(level.keySet()).entrySet()) {
+                level.put(entry.getKey(), saved.computeIfAbsent(entry.getValue(), this::saveAclSet));
+            }
+            final Map<Long, List<String>> idsByAcl = new HashMap<>();
+            level.forEach((id, aclId) -> idsByAcl.computeIfAbsent(aclId, k -> new ArrayList<>()).add(id));
+            idsByAcl.forEach((aclId, ids) -> aclDAO.setAclId(ids, aclId));
+            final Map<String, Long> next = new HashMap<>();
+            for (Pair<String, String> child : aclDAO.getChildren(level.keySet())) {
+                next.put(child.getFirst(), level.get(child.getSecond()));
+            }
+            level = next;
+        }
+        cacheManager.remove(ACL_GENERATION_CACHE, GENERATION);
+    }
+
+    /**
+     * Null effective set means the node has no ACL in the whole hierarchy and is accessible by everyone. After upgrade from the version without effective sets all of them are null,
+     * so they are computed at startup, before any check could grant access by mistake
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void checkEffectiveAcls() {
+        transactionHelper.doInTransaction("aclRebuild", false, () -> {
+            if (aclDAO.hasMissingAclIds()) {
+                logger.warn("effective ACLs are not computed, rebuilding");
+                rebuildEffectiveAcls();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void created(String parentId, Collection<String> ids) {
+        ids.forEach(id -> cacheManager.markAsCreated(ACL_IDS_CACHE, id));
+        final Long aclId = getAclId(parentId);
+        if (aclId != null) {
+            aclDAO.setAclId(ids, aclId);
+        }
+    }
+
+    @Override
+    public void moved(String id, String from, String to) {
+        if (getAces(id) == null) {
+            final Long aclId = getAclId(to);
+            if (!Objects.equals(aclId, getAclId(id))) {
+                propagate(Collections.singletonList(id), aclId);
+            }
+        }
+    }
+
+    /**
+     * ACLs of the nodes have no items for the authority - ACL of the primary parent decides. Nodes are grouped by parent, so every parent is evaluated once
+     * @return nodes readable through their parents
+     */
+    private Set<String> getGrantedByParents(List<String> ids, String authority, Collection<String> membership, Map<Long, Integer> decisions) {
+        final Map<String, String> parents = nodeService.getPrimaryParents(ids);
+        final Map<String, List<String>> children = new HashMap<>();
+        for (String id : ids) {
+            children.computeIfAbsent(parents.get(id), k -> new ArrayList<>()).add(id);
+        }
+        final Set<String> parentIds = new HashSet<>(children.keySet());
+        parentIds.remove(null);
+        final Map<String, Long> parentAclIds = getAclIds(parentIds);
+        decide(parentAclIds.values(), authority, membership, decisions);
+        final Set<String> result = new HashSet<>();
+        children.forEach((parent, list) -> {
+            if (parent == null || getDecision(parentAclIds.get(parent), decisions) == AclSet.GRANTED) {
+                result.addAll(list);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Evaluate every distinct set once. Sets are loaded before the subject is resolved - loading interns authorities of the set, and authority unknown to the index matches nothing
+     */
+    private void decide(Collection<Long> aclIds, String authority, Collection<String> membership, Map<Long, Integer> decisions) {
+        final Map<Long, AclSet> sets = new HashMap<>();
+        for (Long aclId : aclIds) {
+            if (aclId != null && !decisions.containsKey(aclId)) {
+                sets.computeIfAbsent(aclId, this::getAclSet);
+            }
+        }
+        if (!sets.isEmpty()) {
+            final AuthorityIndex.Subject subject = authorities.subject(authority, membership);
+            sets.forEach((aclId, acl) -> decisions.put(aclId, acl.check(subject, MASK_READ)));
+        }
+    }
+
+    private static int getDecision(Long aclId, Map<Long, Integer> decisions) {
+        return aclId != null ? decisions.get(aclId) : AclSet.GRANTED;
+    }
+
+    private boolean hasAccess(String id, String authority, Collection<String> membership, int mask) {
+        // the set is loaded first, so its authorities are interned before the subject is resolved
+        final AclSet acl = getEffectiveAcl(id);
+        return acl == null || acl.check(authorities.subject(authority, membership), mask) == AclSet.GRANTED;
+    }
+
+    private AclSet getEffectiveAcl(String id) {
+        final Long aclId = getAclId(id);
+        return aclId != null ? getAclSet(aclId) : null;
+    }
+
+    private Long getAclId(String id) {
+        if (id == null) {
+            return null;
+        }
+        final long generation = getGeneration();
+        final CachedAclId cached = cacheManager.get(ACL_IDS_CACHE, id);
+        long aclId;
+        if (cached != null && cached.generation == generation) {
+            aclId = cached.aclId;
+        } else {
+            final List<Pair<String, Long>> loaded = aclDAO.getAclIds(Collections.singletonList(id));
+            aclId = !loaded.isEmpty() && loaded.get(0).getSecond() != null ? loaded.get(0).getSecond() : NO_ACL;
+            cacheManager.putExisting(ACL_IDS_CACHE, id, new CachedAclId(aclId, generation));
+        }
+        return aclId != NO_ACL ? aclId : null;
+    }
+
+    /**
+     * @return effective ACL set ids by node id, nodes without ACL are mapped to null or missing
+     */
+    private Map<String, Long> getAclIds(Collection<String> ids) {
+        final long generation = getGeneration();
+        final Map<String, Long> result = new HashMap<>(ids.size());
+        final Set<String> uncached = new HashSet<>();
         for (String id : ids) {
-            final Boolean match = hasAccess(personId, membership, MASK_READ, filteredById(id, aces));
-            if (Boolean.TRUE.equals(match)) {
-                result.add(id);
-            } else if (match == null) {
-                left.add(id);
+            final CachedAclId cached = cacheManager.get(ACL_IDS_CACHE, id);
+            if (cached != null && cached.generation == generation) {
+                result.put(id, cached.aclId != NO_ACL ? cached.aclId : null);
+            } else if (id != null) {
+                uncached.add(id);
             }
         }
-        if (!left.isEmpty()) {
-            final Collection<String> fromParents = parentsHasAccess(left, personId, membership);
-            result.addAll(fromParents);
-            left.removeAll(fromParents);
+        if (!uncached.isEmpty()) {
+            for (Pair<String, Long> loaded : aclDAO.getAclIds(uncached)) {
+                result.put(loaded.getFirst(), loaded.getSecond());
+                cacheManager.putExisting(ACL_IDS_CACHE, loaded.getFirst(), new CachedAclId(loaded.getSecond() != null ? loaded.getSecond() : NO_ACL, generation));
+            }
         }
         return result;
+    }
 
+    /**
+     * Cached effective set ids are valid only for the current generation. Removed generation gets new value, in the changing transaction at once and for others after commit
+     */
+    private long getGeneration() {
+        Long generation = cacheManager.get(ACL_GENERATION_CACHE, GENERATION);
+        if (generation == null) {
+            generation = generations.incrementAndGet();
+            cacheManager.putExisting(ACL_GENERATION_CACHE, GENERATION, generation);
+        }
+        return generation;
     }
 
-    private Collection<String> parentsHasAccess(Collection<String> children, String authorityId, Collection<String> membership) {
-        final Map<String, String> parents = nodeService.getPrimaryParents(children);
-        if (!parents.isEmpty()) {
-            final Set<String> result = new HashSet<>(children.size());
-            for (String child : children) {
-                if (!parents.keySet().contains(child)) {
-                    result.add(child);
-                }
+    /**
+     * Shared sets are never changed, so they are cached compiled and without invalidation. Missing set (should not happen) is empty and grants nothing
+     */
+    private AclSet getAclSet(long aclId) {
+        final String key = String.valueOf(aclId);
+        AclSet acl = cacheManager.get(ACL_SETS_CACHE, key);
+        if (acl == null) {
+            acl = new AclSet(aclDAO.getAclEntries(aclId), authorities);
+            if (!acl.isEmpty()) {
+                cacheManager.putExisting(ACL_SETS_CACHE, key, acl);
             }
-            final Collection<String> ids = parents.values();
-            final List<ACE> aces = getAces(ids);
-            final List<String> left;
-            if (aces == null || aces.isEmpty()) {
-                left = new ArrayList<>(ids);
-            } else {
-                left = new ArrayList<>(children.size());
-                for (String id : ids) {
-                    final Collection<ACE> nodeAces = filteredById(id, aces);
-                    if (!nodeAces.isEmpty()) {
-                        final Boolean match = hasAccess(authorityId, membership, MASK_READ, nodeAces);
-                        if (Boolean.TRUE.equals(match)) {
-                            for (Map.Entry<String, String> entry : parents.entrySet()) {
-                                if (entry.getValue().equals(id)) {
-                                    result.add(entry.getKey());
-                                }
-                            }
-                        }
-                    } else {
-                        left.add(id);
-                    }
+        }
+        return acl;
+    }
+
+    /**
+     * Find or create shared set with the same items. Existence is checked in the database, not in cache - it is write path anyway, and sets could be removed there.
+     * If set with the same id, but other items, exists (hash collision), the next ids are probed - every transaction saving the same items probes them in the same order
+     * @return set id
+     */
+    private long saveAclSet(Map<String, Integer> acl) {
+        final List<ACE> entries = acl.entrySet().stream()
+                .sorted(Comparator.comparing(Map.Entry::getKey))
+                .map(entry -> new ACE(null, entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        long aclId = getAclSetId(entries);
+        while (true) {
+            List<ACE> existing = aclDAO.getAclEntries(aclId);
+            if (existing.isEmpty()) {
+                if (createAclSet(aclId, entries)) {
+                    cacheManager.markAsCreated(ACL_SETS_CACHE, String.valueOf(aclId));
+                    return aclId;
                 }
+                existing = aclDAO.getAclEntries(aclId);
             }
-            if (!left.isEmpty()) {
-                final Collection<String> parentsHasAccess = parentsHasAccess(left, authorityId, membership);
-                if (!parentsHasAccess.isEmpty()) {
-                    for (String child : children) {
-                        if (parentsHasAccess.contains(parents.get(child))) {
-                            result.add(child);
-                        }
-                    }
-                }
+            if (acl.equals(convertToAcl(existing))) {
+                return aclId;
             }
-            return result;
-        } else {
-            return children;
+            aclId = (aclId + 1) & Long.MAX_VALUE;
         }
     }
 
+    /**
+     * Set is inserted in nested transaction, so duplicate key (set is created by concurrent transaction) rolls back to savepoint, not the whole transaction
+     * @return false if set with the id already exists
+     */
+    private boolean createAclSet(long aclId, List<ACE> entries) {
+        try {
+            nested.execute(status -> {
+                aclDAO.createAcl(aclId, entries);
+                return null;
+            });
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
 
-    private boolean hasAccess(String id, String authority, Collection<String> membership, int mask) {
-        final List<ACE> aces = getInheritedAces(id);
-        return aces == null || Boolean.TRUE.equals(hasAccess(authority, membership, mask, aces));
+    /**
+     * Recompute effective sets of the nodes after their explicit ACLs are changed. Nodes with the same explicit ACL share one set and are propagated together
+     */
+    private void aclsChanged(Collection<String> ids) {
+        final Map<String, Map<String, Integer>> explicit = getExplicitAcls(ids);
+        final Map<Map<String, Integer>, Long> saved = new HashMap<>();
+        final Map<Long, List<String>> roots = new HashMap<>();
+        List<String> inheriting = new ArrayList<>();
+        for (String id : ids) {
+            final Map<String, Integer> acl = explicit.get(id);
+            if (acl != null) {
+                roots.computeIfAbsent(saved.computeIfAbsent(acl, this::saveAclSet), k -> new ArrayList<>()).add(id);
+            } else {
+                inheriting.add(id);
+            }
+        }
+        propagateChanged(roots);
+        // parent of the node could inherit from another node of the collection, so repeat until all nodes have set of their parents
+        while (!inheriting.isEmpty()) {
+            final Map<String, String> parents = nodeService.getPrimaryParents(inheriting);
+            final Set<String> parentIds = new HashSet<>(parents.values());
+            parentIds.remove(null);
+            final Map<String, Long> parentAclIds = getAclIds(parentIds);
+            roots.clear();
+            for (String id : inheriting) {
+                final String parent = parents.get(id);
+                roots.computeIfAbsent(parent != null ? parentAclIds.get(parent) : null, k -> new ArrayList<>()).add(id);
+            }
+            final List<String> changed = propagateChanged(roots);
+            inheriting = inheriting.size() > 1 ? changed : Collections.emptyList();
+        }
+    }
+
+    /**
+     * Propagate sets to the roots, which have different set now
+     * @return changed roots
+     */
+    private List<String> propagateChanged(Map<Long, List<String>> roots) {
+        final List<String> result = new ArrayList<>();
+        roots.forEach((aclId, ids) -> {
+            final Map<String, Long> current = getAclIds(ids);
+            final List<String> changed = ids.stream().filter(id -> !Objects.equals(aclId, current.get(id))).collect(Collectors.toList());
+            if (!changed.isEmpty()) {
+                propagate(changed, aclId);
+                result.addAll(changed);
+            }
+        });
+        return result;
     }
 
-    private Boolean hasAccess(String authority, Collection<String> membership, int mask, Iterable<ACE> aces) {
-        final Boolean match = matchStrict(aces, authority, mask);
-        if (match != null) {
-            return match;
+    /**
+     * @return explicit ACLs by node id, duplicate items of authority are ignored
+     */
+    private Map<String, Map<String, Integer>> getExplicitAcls(Collection<String> ids) {
+        final Map<String, Map<String, Integer>> result = new HashMap<>();
+        final List<ACE> aces = aclDAO.getAces(ids);
+        if (aces != null) {
+            for (ACE ace : aces) {
+                result.computeIfAbsent(ace.nodeId, k -> new HashMap<>()).putIfAbsent(ace.authorityId, ace.mask);
+            }
         }
-        if (membership != null) {
-            for (String group : membership) {
-                final Boolean matchGroup = matchStrict(aces, group, mask);
-                if (matchGroup != null) {
-                    return matchGroup;
+        return result;
+    }
+
+    /**
+     * Set effective ACL of the node and all descendants, which inherit it, level by level.
+     * Cached ids of small subtrees are removed one by one, large subtree (more than acl.invalidation.threshold nodes) invalidates all of them at once by new generation
+     */
+    private void propagate(Collection<String> ids, Long aclId) {
+        Collection<String> level = ids;
+        int changed = 0;
+        while (!level.isEmpty()) {
+            aclDAO.setAclId(level, aclId);
+            if (changed <= invalidationThreshold) {
+                changed += level.size();
+                if (changed <= invalidationThreshold) {
+                    level.forEach(node -> cacheManager.remove(ACL_IDS_CACHE, node));
+                } else {
+                    cacheManager.remove(ACL_GENERATION_CACHE, GENERATION);
                 }
             }
+            level = aclDAO.getInheritingChildren(level);
         }
-        return matchStrict(aces, AUTHORITY_WORLD, mask);
     }
 
-    private Boolean matchStrict(Iterable<ACE> aces, String sid, int permission) {
-        if (sid != null && aces != null) {
-            for (ACE entry : aces) {
-                if (entry.authorityId.equals(sid)) {
-                    return (entry.mask & permission) != 0;
-                }
+    private static long getAclSetId(List<ACE> entries) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (ACE entry : entries) {
+                digest.update((entry.authorityId + ':' + entry.mask + '\n').getBytes(StandardCharsets.UTF_8));
             }
+            final byte[] hash = digest.digest();
+            long result = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                result = (result << 8) | (hash[i] & 0xff);
+            }
+            return result & Long.MAX_VALUE;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return null;
     }
 
-    private static Collection<ACE> filteredById(final String id, List<ACE> aces) {
-        return aces != null ? aces.stream().filter(ace -> ace.nodeId.equals(id)).collect(Collectors.toList()) : null;
+    @Override
+    public Collection<String> getCacheNames() {
+        return Arrays.asList(ACLS_CACHE, ACL_IDS_CACHE, ACL_SETS_CACHE);
     }
 
-    private List<ACE> getInheritedAces(String id) {
-        while (id != null) {
-            final List<ACE> aces = getAces(id);
-            if (aces != null) {
-                return aces;
-            }
-            id = nodeService.getPrimaryParent(id);
+    @Override
+    public void load(String cacheName, Collection<String> keys) {
+        if (ACLS_CACHE.equals(cacheName)) {
+            getAces(keys);
+        } else if (ACL_IDS_CACHE.equals(cacheName)) {
+            getAclIds(keys);
+        } else if (ACL_SETS_CACHE.equals(cacheName)) {
+            final List<Long> aclIds = keys.stream().filter(key -> cacheManager.get(ACL_SETS_CACHE, key) == null).map(Long::valueOf).collect(Collectors.toList());
+            aclDAO.getAclEntries(aclIds).forEach((aclId, entries) -> cacheManager.putExisting(ACL_SETS_CACHE, String.valueOf(aclId), new AclSet(entries, authorities)));
         }
-        return null;
     }
 
     private List<ACE> getAces(String id) {
@@ -309,21 +655,14 @@ class AclServiceImpl implements AclService {
         return Collections.emptyList();
     }
 
-    private void createAces(String id, Map<String, Integer> acl) {
-        if (acl != null && !acl.isEmpty()) {
-            aclDAO.createAces(id, convertToAces(acl));
-            cacheManager.markAsCreated(ACLS_CACHE, id);
-        }
-    }
-
-    private void removeAces(String id) {
-        aclDAO.removeAces(id, null);
-        cacheManager.remove(ACLS_CACHE, id);
+    private void createAces(Collection<String> ids, Map<String, Integer> acl) {
+        aclDAO.createAces(ids, convertToAces(acl));
+        ids.forEach(id -> cacheManager.markAsCreated(ACLS_CACHE, id));
     }
 
-    private void removeAces(String id, String authority) {
-        aclDAO.removeAces(id, authority);
-        cacheManager.remove(ACLS_CACHE, id);
+    private void removeAces(Collection<String> ids, String authority) {
+        aclDAO.removeAces(ids, authority);
+        ids.forEach(id -> cacheManager.remove(ACLS_CACHE, id));
     }
 
     private void convertAcesTo(String id, int mask) {
@@ -331,10 +670,42 @@ class AclServiceImpl implements AclService {
         cacheManager.remove(ACLS_CACHE, id);
     }
 
+    /**
+     * Next chunk is started in new transaction when previous one is committed
+     */
+    private CompletableFuture<Integer> removeChunksAsync(String authority, int processed) {
+        return transactionHelper.doInTransactionAsync("aclRemoveAuthority", false, () -> removeChunk(authority))
+                .thenCompose(count -> count > 0 ? removeChunksAsync(authority, processed + count) : CompletableFuture.completedFuture(processed));
+    }
+
+    /**
+     * @return number of nodes, which had items of the authority in ACL
+     */
+    private int removeChunk(String authority) {
+        final List<String> ids = aclDAO.getNodesWithAces(authority, removalBatch);
+        if (!ids.isEmpty()) {
+            removeAces(ids, authority);
+            aclsChanged(ids);
+        }
+        return ids.size();
+    }
+
     private static void checkParam(Object id, String msg) {
         if (id == null) {
             throw new IllegalArgumentException(msg);
         }
     }
 
+    /**
+     * Effective set id of the node (or NO_ACL), with generation it was loaded in
+     */
+    private static final class CachedAclId {
+        private final long aclId;
+        private final long generation;
+
+        private CachedAclId(long aclId, long generation) {
+            this.aclId = aclId;
+            this.generation = generation;
+        }
+    }
 }
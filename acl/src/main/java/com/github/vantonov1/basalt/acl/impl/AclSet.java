@@ -0,0 +1,81 @@
+package com.github.vantonov1.basalt.acl.impl;
+
+import com.github.vantonov1.basalt.cache.Weighted;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared ACL, compiled for evaluation: authorities are interned by {@link AuthorityIndex} and sorted, masks are kept in parallel array.
+ * Evaluation does not allocate. Precedence is the same as in SQL filter of QueryBuilder.readableBy(): authority itself, then the first membership group with an item, then AUTHORITY_WORLD
+ */
+final class AclSet implements Weighted {
+    static final int DENIED = 0;
+    static final int GRANTED = 1;
+    static final int UNDECIDED = 2;
+
+    private final int[] authorities;
+    private final int[] masks;
+    private final String[] names;
+
+    AclSet(List<ACE> entries, AuthorityIndex index) {
+        final int size = entries.size();
+        final long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = ((long) index.intern(entries.get(i).authorityId) << 32) | i;
+        }
+        Arrays.sort(sorted);
+        authorities = new int[size];
+        masks = new int[size];
+        names = new String[size];
+        for (int i = 0; i < size; i++) {
+            final ACE entry = entries.get((int) sorted[i]);
+            authorities[i] = (int) (sorted[i] >>> 32);
+            masks[i] = entry.mask;
+            names[i] = entry.authorityId;
+        }
+    }
+
+    /**
+     * @return {@link #GRANTED} or {@link #DENIED} if ACL has items for the subject, {@link #UNDECIDED} otherwise
+     */
+    int check(AuthorityIndex.Subject subject, int mask) {
+        if (subject.authority != AuthorityIndex.UNKNOWN) {
+            final int i = Arrays.binarySearch(authorities, subject.authority);
+            if (i >= 0) {
+                return (masks[i] & mask) != 0 ? GRANTED : DENIED;
+            }
+        }
+        if (subject.groups != null) {
+            for (int group : subject.groups) {
+                final int i = Arrays.binarySearch(authorities, group);
+                if (i >= 0) {
+                    return (masks[i] & mask) != 0 ? GRANTED : DENIED;
+                }
+            }
+        }
+        if (authorities.length > 0 && authorities[0] == AuthorityIndex.WORLD) {
+            return (masks[0] & mask) != 0 ? GRANTED : DENIED;
+        }
+        return UNDECIDED;
+    }
+
+    boolean isEmpty() {
+        return authorities.length == 0;
+    }
+
+    Map<String, Integer> toMap() {
+        final Map<String, Integer> result = new HashMap<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            result.put(names[i], masks[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int getWeight() {
+        return 1 + authorities.length;
+    }
+}
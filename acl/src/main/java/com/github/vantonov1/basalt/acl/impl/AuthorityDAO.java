@@ -0,0 +1,60 @@
+package com.github.vantonov1.basalt.acl.impl;
+
+import com.github.vantonov1.basalt.repo.AbstractJdbcDAO;
+import com.github.vantonov1.basalt.repo.Pair;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Component
+class AuthorityDAO extends AbstractJdbcDAO {
+    private static final ResultSetExtractor<List<Pair<String, String>>> GET_PAIRS = rs -> {
+        final List<Pair<String, String>> result = new ArrayList<>();
+        int index = 0;
+        while (rs.next()) {
+            setFetchSize(rs, index++);
+            result.add(new Pair<>(rs.getString("group_id").trim(), rs.getString("member_id").trim()));
+        }
+        return result;
+    };
+
+    public AuthorityDAO(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    /**
+     * @return pairs of group and member, for groups directly containing the members
+     */
+    public List<Pair<String, String>> getGroups(Collection<String> members) {
+        return queryBulk("select group_id, member_id from bst_membership", "member_id", members, -1, GET_PAIRS);
+    }
+
+    /**
+     * @return pairs of group and member, for direct members of the groups
+     */
+    public List<Pair<String, String>> getMembers(Collection<String> groups) {
+        return queryBulk("select group_id, member_id from bst_membership", "group_id", groups, -1, GET_PAIRS);
+    }
+
+    public boolean isMember(String group, String member) {
+        return !new Query("select group_id, member_id from bst_membership").where("group_id", group).and("member_id", member).run(GET_PAIRS).isEmpty();
+    }
+
+    public void addMembers(String group, Collection<String> members) {
+        batchUpdate("insert into bst_membership (group_id, member_id) values (?, ?)",
+                members.stream().map(member -> new Object[]{group, member}).collect(Collectors.toList()));
+    }
+
+    public void removeMember(String group, String member) {
+        update("delete from bst_membership where group_id = ? and member_id = ?", group, member);
+    }
+
+    public void removeAuthority(String authority) {
+        update("delete from bst_membership where group_id = ? or member_id = ?", authority, authority);
+    }
+}
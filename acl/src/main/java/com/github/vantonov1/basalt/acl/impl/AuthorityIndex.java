@@ -0,0 +1,69 @@
+package com.github.vantonov1.basalt.acl.impl;
+
+import com.github.vantonov1.basalt.acl.AclService;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns authority GUIDs to small ints, so ACLs could be evaluated without string comparison. Only authorities of stored ACLs are interned,
+ * authority unknown to the index could not match any ACL. AUTHORITY_WORLD always gets {@link #WORLD}. Indexes are never reused, and are valid only inside this JVM
+ */
+class AuthorityIndex {
+    static final int WORLD = 0;
+    static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    AuthorityIndex() {
+        intern(AclService.AUTHORITY_WORLD);
+    }
+
+    int intern(String authority) {
+        return indexes.computeIfAbsent(authority, k -> next.getAndIncrement());
+    }
+
+    int indexOf(String authority) {
+        if (authority == null) {
+            return UNKNOWN;
+        }
+        final Integer index = indexes.get(authority);
+        return index != null ? index : UNKNOWN;
+    }
+
+    /**
+     * Resolve authority and its membership once, before evaluation of (possibly many) ACLs. ACLs should be loaded before, otherwise their authorities are not interned yet
+     */
+    Subject subject(String authority, Collection<String> membership) {
+        int[] groups = null;
+        if (membership != null && !membership.isEmpty()) {
+            groups = new int[membership.size()];
+            int size = 0;
+            for (String group : membership) {
+                final int index = indexOf(group);
+                if (index != UNKNOWN) {
+                    groups[size++] = index;
+                }
+            }
+            groups = size == 0 ? null : size < groups.length ? Arrays.copyOf(groups, size) : groups;
+        }
+        return new Subject(indexOf(authority), groups);
+    }
+
+    /**
+     * Authority and membership groups, resolved to indexes. Groups are kept in membership iteration order, as the first of them with ACL item decides
+     */
+    static final class Subject {
+        final int authority;
+        final int[] groups;
+
+        private Subject(int authority, int[] groups) {
+            this.authority = authority;
+            this.groups = groups;
+        }
+    }
+}
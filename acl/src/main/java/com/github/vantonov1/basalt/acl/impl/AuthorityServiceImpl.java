@@ -0,0 +1,189 @@
+package com.github.vantonov1.basalt.acl.impl;
+
+import com.github.vantonov1.basalt.acl.AuthorityService;
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
+import com.github.vantonov1.basalt.repo.Pair;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transitive membership is expanded level by level - one query per nesting level for all authorities being resolved, and expansion stops at groups with cached membership.
+ * Cycles in groups are tolerated
+ */
+@Service
+@SuppressWarnings("unused")
+class AuthorityServiceImpl implements AuthorityService {
+    private static final String MEMBERSHIP_CACHE = "memberships";
+
+    private final TransactionalCacheManager cacheManager;
+    private final AuthorityDAO authorityDAO;
+
+    public AuthorityServiceImpl(TransactionalCacheManager cacheManager, AuthorityDAO authorityDAO) {
+        this.cacheManager = cacheManager;
+        this.authorityDAO = authorityDAO;
+    }
+
+    @Override
+    public void addMembers(String group, Collection<String> members) {
+        checkParam(group, "group id is null");
+        checkParam(members, "members are null");
+        final Set<String> added = new LinkedHashSet<>(members);
+        added.remove(null);
+        added.remove(group);
+        added.removeAll(getMembers(group));
+        if (!added.isEmpty()) {
+            final Set<String> affected = getNested(added);
+            authorityDAO.addMembers(group, added);
+            invalidate(affected);
+        }
+    }
+
+    @Override
+    public void removeMember(String group, String member) {
+        checkParam(group, "group id is null");
+        checkParam(member, "member id is null");
+        if (authorityDAO.isMember(group, member)) {
+            final Set<String> affected = getNested(Collections.singleton(member));
+            authorityDAO.removeMember(group, member);
+            invalidate(affected);
+        }
+    }
+
+    @Override
+    public void removeAuthority(String authority) {
+        checkParam(authority, "authority id is null");
+        final Set<String> affected = getNested(Collections.singleton(authority));
+        authorityDAO.removeAuthority(authority);
+        invalidate(affected);
+    }
+
+    @Override
+    public Set<String> getMembers(String group) {
+        checkParam(group, "group id is null");
+        final Set<String> result = new HashSet<>();
+        for (Pair<String, String> membership : authorityDAO.getMembers(Collections.singleton(group))) {
+            result.add(membership.getSecond());
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> getMembership(String authority) {
+        return authority != null ? getMembership(Collections.singleton(authority)).get(authority) : Collections.emptySet();
+    }
+
+    @Override
+    public Map<String, Set<String>> getMembership(Collection<String> authorities) {
+        checkParam(authorities, "authorities are null");
+        final Map<String, Set<String>> result = new HashMap<>(authorities.size());
+        final List<String> uncached = new ArrayList<>();
+        for (String authority : authorities) {
+            if (authority != null && !result.containsKey(authority)) {
+                final Membership cached = cacheManager.get(MEMBERSHIP_CACHE, authority);
+                if (cached != null) {
+                    result.put(authority, cached);
+                } else {
+                    uncached.add(authority);
+                }
+            }
+        }
+        if (!uncached.isEmpty()) {
+            final Map<String, Map<String, Integer>> expanded = expand(uncached);
+            expanded.forEach((authority, distances) -> {
+                final Membership value = new Membership(distances);
+                cacheManager.putExisting(MEMBERSHIP_CACHE, authority, value);
+                result.put(authority, value);
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Walk groups up level by level, all authorities together, keeping the shortest nesting distance from authority to every reached group.
+     * Frontier maps every group reached on the current level to authorities, which reached it. Cached membership of reached group is merged with distances shifted by the level,
+     * group reached later by shorter path is walked again
+     */
+    private Map<String, Map<String, Integer>> expand(Collection<String> authorities) {
+        final Map<String, Map<String, Integer>> result = new HashMap<>(authorities.size());
+        Map<String, Set<String>> frontier = new HashMap<>(authorities.size());
+        for (String authority : authorities) {
+            result.put(authority, new HashMap<>());
+            frontier.put(authority, Collections.singleton(authority));
+        }
+        for (int level = 1; !frontier.isEmpty(); level++) {
+            final Map<String, Set<String>> next = new HashMap<>();
+            for (Pair<String, String> membership : authorityDAO.getGroups(frontier.keySet())) {
+                final String group = membership.getFirst();
+                for (String origin : frontier.get(membership.getSecond())) {
+                    if (!group.equals(origin) && isCloser(result.get(origin), group, level)) {
+                        next.computeIfAbsent(group, k -> new HashSet<>()).add(origin);
+                    }
+                }
+            }
+            for (Iterator<Map.Entry<String, Set<String>>> iterator = next.entrySet().iterator(); iterator.hasNext(); ) {
+                final Map.Entry<String, Set<String>> entry = iterator.next();
+                final Membership cached = cacheManager.get(MEMBERSHIP_CACHE, entry.getKey());
+                if (cached != null) {
+                    final int shift = level;
+                    for (String origin : entry.getValue()) {
+                        cached.forEachDistance((group, distance) -> {
+                            if (!group.equals(origin)) {
+                                isCloser(result.get(origin), group, shift + distance);
+                            }
+                        });
+                    }
+                    iterator.remove();
+                }
+            }
+            frontier = next;
+        }
+        return result;
+    }
+
+    private static boolean isCloser(Map<String, Integer> distances, String group, int distance) {
+        final Integer known = distances.get(group);
+        if (known == null || known > distance) {
+            distances.put(group, distance);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return authorities and all their direct and nested members - cached membership of them all depends on the authorities
+     */
+    private Set<String> getNested(Collection<String> authorities) {
+        final Set<String> result = new HashSet<>(authorities);
+        Collection<String> level = authorities;
+        while (!level.isEmpty()) {
+            final List<String> next = new ArrayList<>();
+            for (Pair<String, String> membership : authorityDAO.getMembers(level)) {
+                if (result.add(membership.getSecond())) {
+                    next.add(membership.getSecond());
+                }
+            }
+            level = next;
+        }
+        return result;
+    }
+
+    private void invalidate(Collection<String> authorities) {
+        authorities.forEach(authority -> cacheManager.remove(MEMBERSHIP_CACHE, authority));
+    }
+
+    private static void checkParam(Object id, String msg) {
+        if (id == null) {
+            throw new IllegalArgumentException(msg);
+        }
+    }
+}
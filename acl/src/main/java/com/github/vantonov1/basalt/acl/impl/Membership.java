@@ -0,0 +1,56 @@
+package com.github.vantonov1.basalt.acl.impl;
+
+import com.github.vantonov1.basalt.cache.Weighted;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Immutable transitive membership of authority. Groups are iterated by nesting distance - direct groups first, then groups containing them, and so on,
+ * groups at the same distance are ordered by GUID. Distances are kept to merge cached membership of reached group into membership of the authority
+ */
+final class Membership extends AbstractSet<String> implements Weighted {
+    private final Map<String, Integer> distances;
+
+    Membership(Map<String, Integer> distances) {
+        final List<Map.Entry<String, Integer>> sorted = new ArrayList<>(distances.entrySet());
+        sorted.sort((e1, e2) -> {
+            final int byDistance = Integer.compare(e1.getValue(), e2.getValue());
+            return byDistance != 0 ? byDistance : e1.getKey().compareTo(e2.getKey());
+        });
+        this.distances = new LinkedHashMap<>(sorted.size());
+        for (Map.Entry<String, Integer> entry : sorted) {
+            this.distances.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    void forEachDistance(ObjIntConsumer<String> consumer) {
+        distances.forEach(consumer::accept);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return Collections.unmodifiableSet(distances.keySet()).iterator();
+    }
+
+    @Override
+    public int size() {
+        return distances.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return distances.containsKey(o);
+    }
+
+    @Override
+    public int getWeight() {
+        return 1 + distances.size();
+    }
+}
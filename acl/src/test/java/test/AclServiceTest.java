@@ -1,21 +1,40 @@
 package test;
 
 import com.github.vantonov1.basalt.acl.AclService;
+import com.github.vantonov1.basalt.cache.CacheLoader;
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.Page;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+import com.github.vantonov1.basalt.repo.SearchService;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
 
+import javax.sql.DataSource;
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
+@TestPropertySource(properties = {"acl.filter.parallel.threshold=100", "acl.invalidation.threshold=2", "acl.removal.batch=2"})
 public class AclServiceTest extends BaseTest {
     @Autowired
     private AclService aclService;
@@ -23,6 +42,21 @@ public class AclServiceTest extends BaseTest {
     @Autowired
     private NodeService nodeService;
 
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private TransactionalCacheManager cacheManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private List<CacheLoader> loaders;
+
     private String f1;
     private String f2;
     private String d1;
@@ -75,6 +109,215 @@ public class AclServiceTest extends BaseTest {
         rollback(tx);
     }
 
+    @Test
+    public void testMembership() throws SQLException {
+        final Object tx = beginTx(false);
+        aclService.setAcl(d2, "a1", AclService.MASK_WRITE);
+        aclService.setAcl(d2, "a2", AclService.MASK_READ);
+        final List<String> parents = Arrays.asList(f1, f2);
+        for (List<String> membership : Arrays.asList(Arrays.asList("a1", "a2"), Arrays.asList("a2", "a1"))) {
+            final boolean readable = membership.get(0).equals("a2");//the first group with an item decides
+            Assert.assertEquals(readable, aclService.isReadableBy(d2, "a4", membership));
+            Assert.assertEquals(readable ? Arrays.asList(d2, d3) : Collections.singletonList(d3), aclService.filterReadable(Arrays.asList(d2, d3), "a4", membership));//d3 has no items for the authority, f2 decides
+            final QueryBuilder q = new QueryBuilder().type("doc").readableBy("a4", membership, AclService.MASK_READ);
+            Assert.assertEquals(readable, searchService.search(q, parents, -1).contains(d2));
+        }
+        Assert.assertFalse(aclService.isReadableBy(d2, "a4", Collections.singleton("a1")));
+        Assert.assertFalse(aclService.isReadableBy(d2, "a1", Collections.singleton("a2")));//authority itself has precedence over groups
+        Assert.assertTrue(aclService.isReadableBy(d2, "unknown", Arrays.asList("unknown", "a2")));
+        rollback(tx);
+    }
+
+    @Test
+    public void testSearchReadable() throws SQLException {
+        final Object tx = beginTx(false);
+        final String open = nodeService.createNode(f1, new Node("folder", null), null, null);
+        aclService.setAcl(open, AclService.EVERYONE_READ);
+        final String d4 = nodeService.createNode(open, new Node("doc", null), null, null);
+        nodeService.createNode(open, new Node("memo", null), null, null);
+        nodeService.createNode(f2, new Node("memo", null), null, null);
+        final List<String> docs = Arrays.asList(d1, d2, d3, d4);
+        final List<String> parents = Arrays.asList(f1, f2, open);
+        for (String authority : Arrays.asList("a1", "a2", "a3", "a4")) {
+            for (Collection<String> membership : Arrays.<Collection<String>>asList(null, Collections.singleton("a1"), Arrays.asList("a2", "a3"))) {
+                final Set<String> expected = docs.stream().filter(id -> aclService.isReadableBy(id, authority, membership)).collect(Collectors.toSet());
+                final QueryBuilder q = new QueryBuilder().type("doc").readableBy(authority, membership, AclService.MASK_READ);
+                Assert.assertEquals(authority + ", " + membership, expected, new HashSet<>(searchService.search(q, parents, -1)));
+            }
+        }
+        Assert.assertEquals(2, searchService.count(new QueryBuilder().type("memo").readableBy("a2", null, AclService.MASK_READ)));
+        Assert.assertEquals(1, searchService.count(new QueryBuilder().type("memo").readableBy("a1", null, AclService.MASK_READ)));
+        final QueryBuilder deletable = new QueryBuilder().type("doc").readableBy("a3", null, AclService.MASK_WRITE | AclService.MASK_DELETE);
+        Assert.assertEquals(Collections.singletonList(d3), searchService.search(deletable, parents, -1));
+        Assert.assertEquals(1, searchService.search(new QueryBuilder().type("doc").readableBy("a2", null, AclService.MASK_READ), parents, 1).size());
+        rollback(tx);
+    }
+
+    @Test
+    public void testInheritance() throws SQLException {
+        final Object tx = beginTx(false);
+        final String sub = nodeService.createNode(f2, new Node("folder", null), null, null);
+        final String d5 = nodeService.createNode(sub, new Node("doc", null), null, null);
+        final List<String> parents = Arrays.asList(f1, f2, sub);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(d2, d5)), new HashSet<>(searchService.search(new QueryBuilder().type("doc").readableBy("a2", null, AclService.MASK_READ), parents, -1)));
+
+        nodeService.move(d2, f1, null, null);
+        Assert.assertTrue(aclService.isReadableBy(d2, "a1", null));
+        Assert.assertFalse(aclService.isReadableBy(d2, "a2", null));
+        Assert.assertEquals(Collections.singletonList(d5), searchService.search(new QueryBuilder().type("doc").readableBy("a2", null, AclService.MASK_READ), parents, -1));
+
+        aclService.setAcl(f2, "a4", AclService.MASK_READ);
+        Assert.assertTrue(aclService.isReadableBy(d5, "a4", null));
+        Assert.assertEquals(Collections.singletonList(d5), searchService.search(new QueryBuilder().type("doc").readableBy("a4", null, AclService.MASK_READ), parents, -1));
+
+        final List<String> docs = Arrays.asList(d1, d2, d3, d5);
+        final Map<String, Set<String>> searched = new HashMap<>();
+        final Map<String, List<String>> filtered = new HashMap<>();
+        for (String authority : Arrays.asList("a1", "a2", "a3", "a4")) {
+            searched.put(authority, new HashSet<>(searchService.search(new QueryBuilder().type("doc").readableBy(authority, null, AclService.MASK_READ), parents, -1)));
+            filtered.put(authority, aclService.filterReadable(docs, authority, null));
+        }
+        aclService.rebuildEffectiveAcls();
+        for (String authority : searched.keySet()) {
+            Assert.assertEquals(searched.get(authority), new HashSet<>(searchService.search(new QueryBuilder().type("doc").readableBy(authority, null, AclService.MASK_READ), parents, -1)));
+            Assert.assertEquals(filtered.get(authority), aclService.filterReadable(docs, authority, null));
+        }
+        rollback(tx);
+    }
+
+    @Test
+    public void testUpgrade() throws SQLException {
+        Object tx = beginTx(false);
+        new JdbcTemplate(dataSource).update("update bst_node set acl_id = null");
+        commit(tx);
+        cacheManager.clear("aclIds");
+        applicationContext.publishEvent(new ContextRefreshedEvent(applicationContext));
+
+        tx = beginTx(true);
+        Assert.assertTrue(aclService.isReadableBy(d2, "a2", null));
+        Assert.assertFalse(aclService.isReadableBy(d2, "a1", null));
+        Assert.assertEquals(Collections.singletonList(d2), aclService.filterReadable(Arrays.asList(d1, d2), "a2", null));
+        commit(tx);
+    }
+
+    @Test
+    public void testAclSetCollision() throws SQLException {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Object tx = beginTx(false);
+        final String n1 = nodeService.createNode(null, new Node("doc", null), null, null);
+        final String n2 = nodeService.createNode(null, new Node("doc", null), null, null);
+        aclService.setAcl(n1, "c1", AclService.MASK_READ);
+        final long aclId = jdbcTemplate.queryForObject("select acl_id from bst_node where id = ?", Long.class, n1);
+        // the set now has other items, as if they had the same hash
+        jdbcTemplate.update("update bst_acl_entry set authority_id = 'c2' where acl_id = ?", aclId);
+        commit(tx);
+        cacheManager.clear("aclSets");
+
+        tx = beginTx(false);
+        aclService.setAcl(n2, "c1", AclService.MASK_READ);
+        Assert.assertEquals(Long.valueOf(aclId + 1), jdbcTemplate.queryForObject("select acl_id from bst_node where id = ?", Long.class, n2));
+        Assert.assertTrue(aclService.isReadableBy(n2, "c1", null));
+        Assert.assertFalse(aclService.isReadableBy(n2, "c2", null));
+        aclService.setAcl(n1, "c1", AclService.MASK_READ);
+        Assert.assertEquals(Long.valueOf(aclId + 1), jdbcTemplate.queryForObject("select acl_id from bst_node where id = ?", Long.class, n1));
+        // set row exists, but its items are not visible - duplicate key is rolled back to savepoint
+        jdbcTemplate.update("delete from bst_acl_entry where acl_id = ?", aclId + 1);
+        cacheManager.clear("aclSets");
+        aclService.setAcl(n2, "c1", AclService.MASK_READ);
+        Assert.assertEquals(Long.valueOf(aclId + 2), jdbcTemplate.queryForObject("select acl_id from bst_node where id = ?", Long.class, n2));
+        Assert.assertTrue(aclService.isReadableBy(n2, "c1", null));
+        commit(tx);
+    }
+
+    @Test
+    public void testLoad() throws SQLException {
+        final CacheLoader loader = loaders.stream().filter(l -> l.getCacheNames().contains("aclSets")).findFirst().orElseThrow(IllegalStateException::new);
+        Assert.assertTrue(loader.getCacheNames().containsAll(Arrays.asList("ACLS", "aclIds")));
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        final List<String> aclIds = jdbcTemplate.queryForList("select distinct acl_id from bst_node where acl_id is not null", String.class);
+        cacheManager.clear("aclIds");
+        cacheManager.clear("aclSets");
+
+        final Object tx = beginTx(true);
+        loader.load("aclIds", Arrays.asList(d1, d2, d3));
+        loader.load("aclSets", aclIds);
+        commit(tx);
+        Arrays.asList(d1, d2, d3).forEach(id -> Assert.assertTrue(cacheManager.contains("aclIds", id)));
+        aclIds.forEach(id -> Assert.assertTrue(cacheManager.contains("aclSets", id)));
+    }
+
+    @Test
+    public void testFilterUnknownAuthority() throws SQLException {
+        final String someoneElse = UUID.randomUUID().toString();
+        final String freshUser = UUID.randomUUID().toString();
+        Object tx = beginTx(false);
+        final String root = nodeService.createNode(null, new Node("folder", null), null, null);
+        final String child = nodeService.createNode(root, new Node("doc", null), null, null);
+        aclService.setAcl(root, someoneElse, AclService.MASK_READ);
+        aclService.setAcl(child, freshUser, AclService.MASK_READ);
+        commit(tx);
+        Arrays.asList("ACLS", "aclIds", "aclSets", "aclGeneration").forEach(cacheManager::clear);
+
+        tx = beginTx(true);
+        Assert.assertEquals(Collections.singletonList(child), aclService.filterReadable(Collections.singletonList(child), freshUser, null));
+        commit(tx);
+    }
+
+    @Test
+    public void testFilterLarge() throws SQLException {
+        final Object tx = beginTx(false);
+        final List<String> ids = new ArrayList<>();
+        for (String parent : Arrays.asList(f1, f2, d3)) {
+            ids.addAll(nodeService.createNodes(parent, Collections.nCopies(200, new Node("doc", null)), "contains"));
+        }
+        for (int i = 0; i < ids.size(); i += 7) {
+            aclService.setAcl(ids.get(i), i % 2 == 0 ? "a1" : "a4", AclService.MASK_READ);
+        }
+        Collections.shuffle(ids, new Random(1));
+        for (String authority : Arrays.asList("a1", "a2", "a3", "a4")) {
+            final List<String> expected = new ArrayList<>();
+            for (String id : ids) {
+                if (aclService.filterReadable(Collections.singletonList(id), authority, null).size() == 1) {
+                    expected.add(id);
+                }
+            }
+            Assert.assertEquals(authority, expected, aclService.filterReadable(ids, authority, null));//parallel path, see acl.filter.parallel.threshold
+        }
+        rollback(tx);
+    }
+
+    @Test
+    public void testSubtreeInvalidation() throws SQLException {
+        Object tx = beginTx(false);
+        final String sub = nodeService.createNode(f2, new Node("folder", null), null, null);
+        final String d5 = nodeService.createNode(sub, new Node("doc", null), null, null);
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertTrue(aclService.isReadableBy(d5, "a2", null));
+        Assert.assertTrue(aclService.isReadableBy(d2, "a2", null));
+        commit(tx);
+
+        tx = beginTx(false);
+        aclService.setAcl(sub, "a3", AclService.MASK_READ);//one node, invalidated by key
+        Assert.assertFalse(aclService.isReadableBy(d5, "a2", null));
+        commit(tx);
+
+        tx = beginTx(false);
+        Assert.assertTrue(aclService.isReadableBy(d5, "a3", null));
+        aclService.setAcl(sub, null);
+        aclService.setAcl(f2, null);//whole subtree of f2 inherits f1, invalidated by generation
+        Assert.assertTrue(aclService.isReadableBy(d5, "a1", null));
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertTrue(aclService.isReadableBy(d5, "a1", null));
+        Assert.assertTrue(aclService.isReadableBy(d2, "a1", null));
+        Assert.assertFalse(aclService.isReadableBy(d2, "a2", null));
+        Assert.assertEquals(Arrays.asList(d1, d2, d3, d5), aclService.filterReadable(Arrays.asList(d1, d2, d3, d5), "a1", null));//d3 has no items for a1, f2 inherits f1 now
+        commit(tx);
+    }
+
     @Test
     public void testConversion() throws SQLException {
         final Object tx = beginTx(false);
@@ -90,6 +333,96 @@ public class AclServiceTest extends BaseTest {
     }
 
 
+    @Test
+    public void testBulk() throws SQLException {
+        final Object tx = beginTx(false);
+        final Map<String, Integer> template = new HashMap<>();
+        template.put("a4", AclService.MASK_READ);
+        template.put("a5", AclService.MASK_READ | AclService.MASK_WRITE);
+
+        aclService.setAcl(Arrays.asList(f2, d1, d3), template);
+        for (String id : Arrays.asList(f2, d1, d3)) {
+            Assert.assertEquals(template, aclService.getAcl(id));
+        }
+        Assert.assertTrue(aclService.isWritableBy(d2, "a5", null));//inherited from f2
+        Assert.assertFalse(aclService.isReadableBy(d1, "a1", null));
+
+        aclService.addAcl(Arrays.asList(d1, d2), Collections.singletonMap("a1", AclService.MASK_READ));
+        Assert.assertTrue(aclService.isReadableBy(d1, "a1", null));
+        Assert.assertTrue(aclService.isReadableBy(d2, "a1", null));
+        Assert.assertFalse(aclService.isReadableBy(d3, "a1", null));
+
+        aclService.removeAcl(Arrays.asList(f2, d1, d3), "a5");
+        Assert.assertFalse(aclService.isWritableBy(d2, "a5", null));
+        Assert.assertEquals(Collections.singletonMap("a4", AclService.MASK_READ), aclService.getAcl(d3));
+
+        aclService.setAcl(Arrays.asList(d1, d2, d3), null);
+        Assert.assertTrue(aclService.isReadableBy(d1, "a1", null));//inherited from f1
+        Assert.assertTrue(aclService.isReadableBy(d3, "a4", null));//inherited from f2
+        rollback(tx);
+    }
+
+    @Test
+    public void testRemoveAuthority() throws Exception {
+        Object tx = beginTx(false);
+        aclService.addAcl(Arrays.asList(f1, f2, d1, d2, d3), Collections.singletonMap("a4", AclService.MASK_READ));
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertTrue(aclService.isReadableBy(d2, "a4", null));
+        Assert.assertTrue(aclService.isReadableBy(d3, "a3", null));
+        commit(tx);
+
+        Assert.assertEquals(5, aclService.removeACLsAsync("a4").get().intValue());//three chunks, see acl.removal.batch
+
+        tx = beginTx(true);
+        for (String id : Arrays.asList(f1, f2, d1, d2, d3)) {
+            Assert.assertFalse(aclService.isReadableBy(id, "a4", null));
+        }
+        Assert.assertEquals(Collections.singletonMap("a3", AclService.MASK_READ | AclService.MASK_DELETE), aclService.getAcl(d3));
+        Assert.assertNull(aclService.getAcl(d2).get("a4"));
+        commit(tx);
+
+        tx = beginTx(false);
+        aclService.removeACLs("a3");
+        Assert.assertTrue(aclService.isReadableBy(d3, "a2", null));//d3 inherits f2 now
+        commit(tx);
+    }
+
+    @Test
+    public void testReadableChildren() throws SQLException {
+        final Object tx = beginTx(false);
+        final List<Node> docs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            docs.add(new Node("doc", Collections.<String, Serializable>singletonMap("name", String.format("doc%02d", i))));
+        }
+        final List<String> ids = nodeService.createNodes(f2, docs, "contains");
+        for (int i = 0; i < ids.size(); i += 3) {
+            aclService.setAcl(ids.get(i), "a3", AclService.MASK_READ);
+        }
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (i % 3 != 0) {
+                expected.add(ids.get(i));//inherits f2
+            }
+        }
+        final List<String> listed = new ArrayList<>();
+        Page<String> page = aclService.getReadableChildren(f2, "contains", "name", "a2", null, null, 5);
+        listed.addAll(page.items);
+        while (page.hasNext()) {
+            page = aclService.getReadableChildren(f2, "contains", "name", "a2", null, page.next, 5);
+            Assert.assertTrue(page.items.size() <= 5);
+            listed.addAll(page.items);
+        }
+        Assert.assertEquals(expected, listed);
+
+        page = aclService.getReadableChildren(f2, "contains", "name", "a3", null, null, 100);
+        Assert.assertEquals(7, page.items.size());
+        Assert.assertFalse(page.hasNext());
+        rollback(tx);
+    }
+
     @Test
     public void testACLs() throws SQLException {
         final Object tx = beginTx(false);
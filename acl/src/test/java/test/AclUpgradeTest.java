@@ -0,0 +1,81 @@
+package test;
+
+import com.github.vantonov1.basalt.BasaltAclConfiguration;
+import com.github.vantonov1.basalt.BasaltRepoConfiguration;
+import com.github.vantonov1.basalt.acl.AclService;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+import com.github.vantonov1.basalt.repo.SearchService;
+import org.hsqldb.jdbc.JDBCDriver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Starts ACL service on database created by the first released schema (baseline-schema.sql of basalt-repo tests), with explicit ACLs but without effective ones
+ */
+public class AclUpgradeTest {
+    private final String url = "jdbc:hsqldb:mem:basalt-acl-upgrade-" + UUID.randomUUID();
+    private final DataSource dataSource = new SimpleDriverDataSource(new JDBCDriver(), url, "sa", "");
+    private ConfigurableApplicationContext context;
+
+    @Configuration
+    @EnableAutoConfiguration
+    @Import({BasaltRepoConfiguration.class, BasaltAclConfiguration.class})
+    static class UpgradeConfiguration {
+    }
+
+    @Before
+    public void before() {
+        new ResourceDatabasePopulator(new ClassPathResource("baseline-schema.sql")).execute(dataSource);
+    }
+
+    @After
+    public void after() {
+        if (context != null) {
+            context.close();
+        }
+        new JdbcTemplate(dataSource).execute("shutdown");
+    }
+
+    @Test
+    public void testEffectiveAcls() {
+        final String folder = UUID.randomUUID().toString();
+        final String doc = UUID.randomUUID().toString();
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("insert into bst_node (id, modified, class) values (?, ?, 'folder')", folder, System.currentTimeMillis());
+        jdbcTemplate.update("insert into bst_node (id, parent_id, modified, class) values (?, ?, ?, 'doc')", doc, folder, System.currentTimeMillis());
+        jdbcTemplate.update("insert into bst_assoc (type, source, target) values ('contains', ?, ?)", folder, doc);
+        jdbcTemplate.update("insert into bst_aces (node_id, authority_id, mask) values (?, 'a1', ?)", folder, AclService.MASK_READ);
+
+        context = new SpringApplicationBuilder(UpgradeConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.config.name=upgrade", "spring.datasource.url=" + url, "spring.datasource.initialization-mode=never")
+                .run();
+        Assert.assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject("select count(*) from bst_node where acl_id is null", Integer.class));
+        final AclService aclService = context.getBean(AclService.class);
+        final SearchService searchService = context.getBean(SearchService.class);
+        final TransactionTemplate tx = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        tx.setReadOnly(true);
+        Assert.assertEquals(Boolean.TRUE, tx.execute(status -> aclService.isReadableBy(doc, "a1", null)));
+        Assert.assertEquals(Boolean.FALSE, tx.execute(status -> aclService.isReadableBy(doc, "a2", null)));
+        Assert.assertEquals(Collections.singletonList(doc), tx.execute(status -> searchService.search(new QueryBuilder().type("doc").readableBy("a1", null, AclService.MASK_READ))));
+        Assert.assertEquals(Collections.emptyList(), tx.execute(status -> aclService.filterReadable(Collections.singletonList(doc), "a2", null)));
+    }
+}
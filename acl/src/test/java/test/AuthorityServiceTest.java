@@ -0,0 +1,141 @@
+package test;
+
+import com.github.vantonov1.basalt.acl.AclService;
+import com.github.vantonov1.basalt.acl.AuthorityService;
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+import com.github.vantonov1.basalt.repo.SearchService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class AuthorityServiceTest extends BaseTest {
+    @Autowired
+    private AuthorityService authorityService;
+
+    @Autowired
+    private AclService aclService;
+
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private SearchService searchService;
+
+    @Before
+    public void init() throws SQLException {
+        final Object tx = beginTx(false);
+        authorityService.addMembers("staff", Arrays.asList("dev", "ops"));
+        authorityService.addMembers("dev", Arrays.asList("alice", "bob"));
+        authorityService.addMembers("ops", Collections.singleton("bob"));
+        commit(tx);
+    }
+
+    @Test
+    public void testMembership() throws SQLException {
+        final Object tx = beginTx(true);
+        Assert.assertEquals(set("dev", "staff"), authorityService.getMembership("alice"));
+        Assert.assertEquals(set("dev", "ops", "staff"), authorityService.getMembership("bob"));
+        Assert.assertEquals(Collections.emptySet(), authorityService.getMembership("staff"));
+        Assert.assertEquals(Collections.emptySet(), authorityService.getMembership((String) null));
+        Assert.assertEquals(set("alice", "bob"), authorityService.getMembers("dev"));
+
+        final Map<String, Set<String>> bulk = authorityService.getMembership(Arrays.asList("alice", "bob", "carol"));
+        Assert.assertEquals(set("dev", "staff"), bulk.get("alice"));
+        Assert.assertEquals(set("dev", "ops", "staff"), bulk.get("bob"));
+        Assert.assertEquals(Collections.emptySet(), bulk.get("carol"));
+        commit(tx);
+    }
+
+    @Test
+    public void testInvalidation() throws SQLException {
+        Object tx = beginTx(true);
+        Assert.assertEquals(set("dev", "staff"), authorityService.getMembership("alice"));
+        Assert.assertEquals(set("staff"), authorityService.getMembership("dev"));
+        commit(tx);
+
+        tx = beginTx(false);
+        authorityService.addMembers("all", Collections.singleton("staff"));
+        Assert.assertEquals(set("dev", "staff", "all"), authorityService.getMembership("alice"));
+        authorityService.removeMember("staff", "dev");
+        Assert.assertEquals(set("dev"), authorityService.getMembership("alice"));
+        Assert.assertEquals(set("dev", "ops", "staff", "all"), authorityService.getMembership("bob"));
+        commit(tx);
+
+        tx = beginTx(false);
+        Assert.assertEquals(set("dev"), authorityService.getMembership("alice"));
+        authorityService.removeAuthority("ops");
+        Assert.assertEquals(set("dev"), authorityService.getMembership("bob"));
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertEquals(set("dev"), authorityService.getMembership("bob"));
+        commit(tx);
+    }
+
+    @Test
+    public void testCycle() throws SQLException {
+        final Object tx = beginTx(false);
+        authorityService.addMembers("alice", Collections.singleton("staff"));
+        Assert.assertEquals(set("dev", "staff"), authorityService.getMembership("alice"));
+        Assert.assertEquals(set("alice", "dev"), authorityService.getMembership("staff"));
+        rollback(tx);
+    }
+
+    @Test
+    public void testAccess() throws SQLException {
+        final Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("doc", null), null, null);
+        aclService.setAcl(id, "staff", AclService.MASK_READ);
+        Assert.assertTrue(aclService.isReadableBy(id, "alice", authorityService.getMembership("alice")));
+        Assert.assertFalse(aclService.isReadableBy(id, "carol", authorityService.getMembership("carol")));
+        rollback(tx);
+    }
+
+    @Test
+    public void testNearestGroupDecides() throws SQLException {
+        final Object tx = beginTx(false);
+        authorityService.addMembers("z-direct", Collections.singleton("carol"));
+        authorityService.addMembers("a-nested", Collections.singleton("z-direct"));
+        final String id = nodeService.createNode(null, new Node("doc", null), null, null);
+        final Map<String, Integer> acl = new HashMap<>();
+        acl.put("z-direct", AclService.MASK_WRITE);
+        acl.put("a-nested", AclService.MASK_READ);
+        aclService.setAcl(id, acl);
+        for (int i = 0; i < 2; i++) {//expanded, then cached
+            final Set<String> membership = authorityService.getMembership("carol");
+            Assert.assertEquals(Arrays.asList("z-direct", "a-nested"), new ArrayList<>(membership));
+            Assert.assertFalse(aclService.isReadableBy(id, "carol", membership));
+            Assert.assertEquals(0, searchService.count(new QueryBuilder().type("doc").readableBy("carol", membership, AclService.MASK_READ)));
+        }
+        authorityService.addMembers("a-nested", Collections.singleton("carol"));//now direct too
+        Assert.assertEquals(Arrays.asList("a-nested", "z-direct"), new ArrayList<>(authorityService.getMembership("carol")));
+        Assert.assertTrue(aclService.isReadableBy(id, "carol", authorityService.getMembership("carol")));
+        rollback(tx);
+    }
+
+    @Test
+    public void testCachedGroupDistance() throws SQLException {
+        final Object tx = beginTx(false);
+        authorityService.addMembers("all", Collections.singleton("staff"));
+        authorityService.addMembers("ops", Collections.singleton("alice"));
+        Assert.assertEquals(Arrays.asList("staff", "all"), new ArrayList<>(authorityService.getMembership("dev")));
+        Assert.assertEquals(Arrays.asList("dev", "ops", "staff", "all"), new ArrayList<>(authorityService.getMembership("alice")));//cached membership of dev is shifted by its distance
+        rollback(tx);
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.vantonov1.basalt.benchmarks;
+
+import com.github.vantonov1.basalt.BasaltAclConfiguration;
+import com.github.vantonov1.basalt.BasaltRepoConfiguration;
+import com.github.vantonov1.basalt.acl.AclService;
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
+import com.github.vantonov1.basalt.repo.NodeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of ACL evaluation on generated {@link Hierarchy} in embedded HSQLDB. Every call runs in its own read-only transaction, as it would in application.
+ * With cache=cold, ACL caches and node cache are cleared before every call, so the call loads everything it needs from DB
+ * <p>Run all combinations with <code>java -jar benchmarks/target/benchmarks.jar</code>, or select them with JMH options, e.g.
+ * <code>-p depth=30 -p fanout=10000 -p cache=warm</code>. Add <code>-prof gc</code> to measure allocation per call, and <code>-bm sample</code> for latency percentiles</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AclBenchmark {
+    private static final List<String> CACHES = Arrays.asList("ACLS", "aclIds", "aclSets", "aclGeneration", "nodes", "parents");
+
+    @Param({"5", "30"})
+    private int depth;
+
+    @Param({"10", "1000", "10000"})
+    private int fanout;
+
+    @Param({"0", "10", "50"})
+    private int groups;
+
+    @Param({"warm", "cold"})
+    private String cache;
+
+    private ConfigurableApplicationContext context;
+    private AclService aclService;
+    private TransactionalCacheManager cacheManager;
+    private TransactionTemplate readOnly;
+    private Hierarchy hierarchy;
+    private int next;
+
+    @Configuration
+    @EnableAutoConfiguration
+    @Import({BasaltRepoConfiguration.class, BasaltAclConfiguration.class})
+    static class BenchmarkConfiguration {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(BenchmarkConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:hsqldb:mem:basalt-benchmarks-" + System.nanoTime(),
+                        "spring.datasource.initialization-mode=never",
+                        "cache.max.weight=10000000",
+                        "logging.level.root=WARN")
+                .run();
+        aclService = context.getBean(AclService.class);
+        cacheManager = context.getBean(TransactionalCacheManager.class);
+        final PlatformTransactionManager transactionManager = context.getBean(PlatformTransactionManager.class);
+        final NodeService nodeService = context.getBean(NodeService.class);
+        hierarchy = new TransactionTemplate(transactionManager).execute(status -> new Hierarchy(nodeService, aclService, depth, fanout, groups));
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.execute(status -> aclService.filterReadable(hierarchy.documents, Hierarchy.USER, hierarchy.membership));
+    }
+
+    /**
+     * Invocation level setup adds its own overhead, but calls on cold cache take at least one DB round trip, so it is negligible
+     */
+    @Setup(Level.Invocation)
+    public void evict() {
+        if ("cold".equals(cache)) {
+            CACHES.forEach(cacheManager::clear);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Boolean isReadableBy() {
+        final String id = nextDocument();
+        return readOnly.execute(status -> aclService.isReadableBy(id, Hierarchy.USER, hierarchy.membership));
+    }
+
+    @Benchmark
+    public Map<String, Integer> getAcl() {
+        final String id = nextDocument();
+        return readOnly.execute(status -> aclService.getAcl(id));
+    }
+
+    @Benchmark
+    public List<String> filterReadable() {
+        return readOnly.execute(status -> aclService.filterReadable(hierarchy.documents, Hierarchy.USER, hierarchy.membership));
+    }
+
+    /**
+     * Documents are taken in turn, so both explicit and inherited ACLs are measured
+     */
+    private String nextDocument() {
+        final List<String> documents = hierarchy.documents;
+        return documents.get(next++ % documents.size());
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.vantonov1.basalt.benchmarks;
+
+import com.github.vantonov1.basalt.acl.AclService;
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates chain of depth folders with fanout documents in the deepest one. The root, every ACL_STEP-th folder and every OWNED_STEP-th document have own ACL,
+ * so effective ACLs of the documents are both explicit and inherited through the whole depth. Every ACL has items for foreign groups and grants read access to the benchmark user -
+ * through the last of its groups, if there are any, so permission is decided by membership. All documents are readable
+ */
+class Hierarchy {
+    static final String USER = "bench-user";
+    static final String ASSOC_TYPE = "contains";
+
+    private static final int ACL_STEP = 5;
+    private static final int OWNED_STEP = 10;
+    private static final int FOREIGN_GROUPS = 5;
+
+    final List<String> folders = new ArrayList<>();
+    final List<String> documents;
+    final Set<String> membership = new HashSet<>();
+
+    /**
+     * Should be called inside transaction
+     * @param depth number of folders from root to documents
+     * @param fanout number of documents
+     * @param groups number of groups containing the user
+     */
+    Hierarchy(NodeService nodeService, AclService aclService, int depth, int fanout, int groups) {
+        for (int i = 0; i < groups; i++) {
+            membership.add("group-" + i);
+        }
+        final String grantee = groups > 0 ? "group-" + (groups - 1) : USER;
+        String parent = null;
+        for (int level = 0; level < depth; level++) {
+            parent = nodeService.createNode(parent, new Node("folder", name("folder-" + level)), parent != null ? ASSOC_TYPE : null, null);
+            folders.add(parent);
+            if (level % ACL_STEP == 0) {
+                aclService.setAcl(parent, acl("foreign-" + level, grantee));
+            }
+        }
+        final List<Node> nodes = new ArrayList<>(fanout);
+        for (int i = 0; i < fanout; i++) {
+            nodes.add(new Node("doc", name(String.format("doc-%06d", i))));
+        }
+        documents = nodeService.createNodes(parent, nodes, ASSOC_TYPE);
+        for (int i = 0; i < documents.size(); i += OWNED_STEP) {
+            final Map<String, Integer> acl = acl("foreign-doc", grantee);
+            acl.put("owner-" + i, AclService.MASK_READ | AclService.MASK_WRITE | AclService.MASK_DELETE);
+            aclService.setAcl(documents.get(i), acl);
+        }
+    }
+
+    /**
+     * @return ACL with items for groups the user is not member of, and read access for the grantee
+     */
+    private static Map<String, Integer> acl(String foreign, String grantee) {
+        final Map<String, Integer> acl = new HashMap<>();
+        for (int i = 0; i < FOREIGN_GROUPS; i++) {
+            acl.put(foreign + "-" + i, AclService.MASK_READ);
+        }
+        acl.put(grantee, AclService.MASK_READ);
+        return acl;
+    }
+
+    private static Map<String, Serializable> name(String name) {
+        return Collections.singletonMap("name", name);
+    }
+}
@@ -4,6 +4,7 @@ import com.github.vantonov1.basalt.fulltext.FullTextSearchService;
 import com.github.vantonov1.basalt.repo.FullTextIndexer;
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.Pair;
+import com.github.vantonov1.basalt.repo.TransactionContext;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.tika.config.TikaConfig;
@@ -137,9 +138,9 @@ public abstract class AbstractFullTextIndexer extends TransactionSynchronization
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void afterCommit() {
-        final List<Runnable> postponed = (List<Runnable>) TransactionSynchronizationManager.getResource("LuceneTask");
+        final TransactionContext context = TransactionContext.current();
+        final List<Runnable> postponed = context != null ? context.getState(this) : null;
         if (postponed != null) {
             for (final Runnable runnable : postponed) {
                 try {
@@ -152,8 +153,9 @@ public abstract class AbstractFullTextIndexer extends TransactionSynchronization
 
     @Override
     public void afterCompletion(int i) {
-        if (TransactionSynchronizationManager.hasResource("LuceneTask")) {
-            TransactionSynchronizationManager.unbindResource("LuceneTask");
+        final TransactionContext context = TransactionContext.current();
+        if (context != null) {
+            context.removeState(this);
         }
     }
 
@@ -211,14 +213,12 @@ public abstract class AbstractFullTextIndexer extends TransactionSynchronization
         });
     }
 
-    @SuppressWarnings("unchecked")
     private void postpone(Runnable task) {
-        if (TransactionSynchronizationManager.isActualTransactionActive()) {
-            List<Runnable> postponed = (List<Runnable>) TransactionSynchronizationManager.getResource("LuceneTask");
+        final TransactionContext context = TransactionSynchronizationManager.isActualTransactionActive() ? TransactionContext.get() : null;
+        if (context != null) {
+            List<Runnable> postponed = context.getState(this);
             if (postponed == null) {
-                postponed = new ArrayList<>();
-                TransactionSynchronizationManager.bindResource("LuceneTask", postponed);
-                TransactionSynchronizationManager.registerSynchronization(this);
+                postponed = context.putState(this, new ArrayList<>());
             }
             postponed.add(task);
         } else {
@@ -1,13 +1,15 @@
 package com.github.vantonov1.basalt;
 
+import com.github.vantonov1.basalt.cache.BoundedCacheManager;
+import com.github.vantonov1.basalt.cache.OffHeapNodeCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 
@@ -15,6 +17,7 @@ import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 @ComponentScan
@@ -23,6 +26,9 @@ public class BasaltRepoConfiguration {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private Environment environment;
+
     @PostConstruct
     private void postConstruct() {
         initSchema();
@@ -31,14 +37,23 @@ public class BasaltRepoConfiguration {
     @Bean
     @ConditionalOnMissingBean(CacheManager.class)
     public CacheManager cacheManager() {
-        return new ConcurrentMapCacheManager();
+        final long maxWeight = environment.getProperty("cache.max.weight", Long.class, 100000L);
+        final long expireAfterAccess = environment.getProperty("cache.expire.after.access", Long.class, 3600L);
+        final BoundedCacheManager cacheManager = new BoundedCacheManager(name -> environment.getProperty("cache." + name + ".max.weight", Long.class, maxWeight), TimeUnit.SECONDS.toMillis(expireAfterAccess));
+        final long offHeap = environment.getProperty("cache.nodes.off.heap.size", Long.class, 0L);
+        if (offHeap > 0) {
+            cacheManager.addCache(new OffHeapNodeCache("nodes", offHeap, environment.getProperty("cache.nodes.off.heap.slab", Integer.class, 1 << 20)));
+        }
+        return cacheManager;
     }
 
+    // schema.sql creates tables of new database, upgrade.sql adds columns missing in tables of existing one - statements for existing objects fail and are ignored
     private void initSchema() {
         try (Connection c = dataSource.getConnection()) {
             final ClassPathResource schema = new ClassPathResource("schema.sql");
+            final ClassPathResource upgrade = new ClassPathResource("upgrade.sql");
             final ClassPathResource dialect = new ClassPathResource(getDialect(c.getMetaData().getURL()) + ".sql");
-            new ResourceDatabasePopulator(true, true, "UTF-8", schema, dialect.exists() ? dialect : new ClassPathResource("default.sql")).populate(c);
+            new ResourceDatabasePopulator(true, true, "UTF-8", schema, upgrade, dialect.exists() ? dialect : new ClassPathResource("default.sql")).populate(c);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,251 @@
+package com.github.vantonov1.basalt.cache;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * L2 cache with limited total weight of entries. Entries are evicted in LRU order, but new entry is admitted only if it was requested more frequently than eviction candidate (TinyLFU),
+ * so one scan over many rarely used keys could not wash out hot entries. Entries not accessed longer than specified interval are expired
+ * <p>Lookups do not block - access order and frequencies are updated only if the lock is free, so under contention some accesses are not recorded.
+ * Expired entry is removed by lookup without the lock, its key is left in access order until the lock is free or the key is met by eviction</p>
+ */
+public class BoundedCache extends AbstractValueAdaptingCache {
+    private final String name;
+    private final long maxWeight;
+    private final long expireAfterAccess;
+    private final ToIntFunction<Object> weigher;
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Object, Entry> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AtomicLong weight = new AtomicLong();
+
+    /**
+     * @param maxWeight max total weight of entries
+     * @param expireAfterAccess time in milliseconds to keep entries since last access, not used if &lt;= 0
+     * @param weigher weight of value, usually number of contained elements
+     */
+    public BoundedCache(String name, long maxWeight, long expireAfterAccess, ToIntFunction<Object> weigher) {
+        super(false);
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.expireAfterAccess = expireAfterAccess;
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(maxWeight);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return entries;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        final Entry entry = entries.get(key);
+        final long now = System.currentTimeMillis();
+        if (entry != null && isExpired(entry, now)) {
+            if (entries.remove(key, entry)) {
+                weight.addAndGet(-entry.weight);
+                if (lock.tryLock()) {
+                    try {
+                        accessOrder.remove(key, entry);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            return null;
+        }
+        if (lock.tryLock()) {
+            try {
+                sketch.increment(key);
+                if (entry != null) {
+                    accessOrder.get(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (entry != null) {
+            entry.accessed = now;
+            return entry.value;
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        final ValueWrapper wrapper = get(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        try {
+            final T value = valueLoader.call();
+            put(key, value);
+            return value;
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        if (value == null) {
+            evict(key);
+            return;
+        }
+        final int w = Math.max(1, weigher.applyAsInt(value));
+        lock.lock();
+        try {
+            sketch.increment(key);
+            final Entry old = remove(key);
+            if (w <= maxWeight && makeRoom(key, w, old != null)) {
+                final Entry entry = new Entry(value, w);
+                entries.put(key, entry);
+                accessOrder.put(key, entry);
+                weight.addAndGet(w);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        final ValueWrapper existing = get(key);
+        if (existing == null) {
+            put(key, value);
+            return null;
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        lock.lock();
+        try {
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            entries.forEach((key, entry) -> {
+                if (entries.remove(key, entry)) {
+                    weight.addAndGet(-entry.weight);
+                }
+            });
+            accessOrder.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWeight() {
+        return weight.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return keys of cached entries, most frequently used first (recently used first, if frequencies are equal)
+     */
+    public List<Object> getHotKeys(int limit) {
+        final List<Object> keys;
+        final Map<Object, Integer> frequencies;
+        lock.lock();
+        try {
+            keys = new ArrayList<>(accessOrder.size());
+            frequencies = new HashMap<>(accessOrder.size() * 4 / 3 + 1);
+            for (Map.Entry<Object, Entry> entry : accessOrder.entrySet()) {
+                if (entries.get(entry.getKey()) == entry.getValue()) {
+                    keys.add(entry.getKey());
+                    frequencies.put(entry.getKey(), sketch.frequency(entry.getKey()));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        Collections.reverse(keys);
+        keys.sort(Comparator.comparing(frequencies::get, Comparator.reverseOrder()));
+        return keys.size() > limit ? new ArrayList<>(keys.subList(0, limit)) : keys;
+    }
+
+    /**
+     * Remove entry under the lock. Key may be left in access order by lookup of expired entry, so it is removed regardless of the entry
+     */
+    private Entry remove(Object key) {
+        accessOrder.remove(key);
+        final Entry old = entries.remove(key);
+        if (old != null) {
+            weight.addAndGet(-old.weight);
+        }
+        return old;
+    }
+
+    /**
+     * Evict expired and least recently used entries, while there is no space for the new one. Candidate is rejected, if it is accessed not more often than the first victim
+     */
+    private boolean makeRoom(Object key, int w, boolean replaced) {
+        final long now = System.currentTimeMillis();
+        boolean compared = replaced;
+        for (Iterator<Map.Entry<Object, Entry>> iterator = accessOrder.entrySet().iterator(); weight.get() + w > maxWeight && iterator.hasNext(); ) {
+            final Map.Entry<Object, Entry> victim = iterator.next();
+            if (entries.get(victim.getKey()) != victim.getValue()) {
+                iterator.remove();//already removed by lookup of expired entry
+                continue;
+            }
+            if (!compared && !isExpired(victim.getValue(), now)) {
+                if (sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+                    return false;
+                }
+                compared = true;
+            }
+            iterator.remove();
+            if (entries.remove(victim.getKey(), victim.getValue())) {
+                weight.addAndGet(-victim.getValue().weight);
+            }
+        }
+        return true;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return expireAfterAccess > 0 && now - entry.accessed > expireAfterAccess;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final int weight;
+        private volatile long accessed = System.currentTimeMillis();
+
+        private Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.vantonov1.basalt.cache;
+
+import com.github.vantonov1.basalt.repo.Node;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Default L2 {@link CacheManager}, creates {@link BoundedCache bounded caches} on demand. Weight of node is number of property values plus one, weight of collection or map is its size, {@link Weighted} values report their own weight
+ */
+public class BoundedCacheManager implements CacheManager {
+    public static final ToIntFunction<Object> DEFAULT_WEIGHER = BoundedCacheManager::weigh;
+
+    private final Function<String, Long> maxWeight;
+    private final long expireAfterAccess;
+    private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxWeight max weight by cache name
+     * @param expireAfterAccess time in milliseconds to keep entries since last access, not used if &lt;= 0
+     */
+    public BoundedCacheManager(Function<String, Long> maxWeight, long expireAfterAccess) {
+        this.maxWeight = maxWeight;
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, n -> new BoundedCache(n, maxWeight.apply(n), expireAfterAccess, DEFAULT_WEIGHER));
+    }
+
+    /**
+     * Use own implementation for some cache, e.g. {@link OffHeapNodeCache}
+     */
+    public void addCache(Cache cache) {
+        caches.put(cache.getName(), cache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    private static int weigh(Object value) {
+        if (value instanceof Node) {
+            final Node node = (Node) value;
+            int result = 1;
+            if (node.hasProperties()) {
+                for (Serializable v : node.getProperties().values()) {
+                    result += v instanceof Collection ? ((Collection) v).size() : 1;
+                }
+            }
+            return result;
+        } else if (value instanceof Collection) {
+            return ((Collection) value).size();
+        } else if (value instanceof Map) {
+            return ((Map) value).size();
+        } else if (value instanceof Weighted) {
+            return ((Weighted) value).getWeight();
+        }
+        return 1;
+    }
+}
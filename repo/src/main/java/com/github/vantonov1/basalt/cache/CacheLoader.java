@@ -0,0 +1,18 @@
+package com.github.vantonov1.basalt.cache;
+
+import java.util.Collection;
+
+/**
+ * Service, which could fill its caches by keys in bulk. Used by {@link CacheWarmer} to restore hot entries after restart
+ */
+public interface CacheLoader {
+    /**
+     * @return names of caches, filled by this loader
+     */
+    Collection<String> getCacheNames();
+
+    /**
+     * Read values for the keys and put them to the cache. Called in read-only transaction
+     */
+    void load(String cacheName, Collection<String> keys);
+}
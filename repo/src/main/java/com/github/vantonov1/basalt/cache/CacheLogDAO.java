@@ -0,0 +1,97 @@
+package com.github.vantonov1.basalt.cache;
+
+import com.github.vantonov1.basalt.repo.AbstractJdbcDAO;
+import com.github.vantonov1.basalt.repo.impl.GUID;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Log of cache changes, shared by all application instances working with the same database (bst_cache_log table).
+ * Changes are appended in the same transaction, which has made them, and are read by {@link CacheLogPoller} of other instances.
+ * Sequence numbers are assigned by identity column of the table
+ * <p>Enabled, if cache.cluster.poll.interval is set</p>
+ */
+@Component
+public class CacheLogDAO extends AbstractJdbcDAO {
+    public static final String ALL_KEYS = "*";
+
+    private final String origin = GUID.generate();
+
+    @Value("${cache.cluster.poll.interval:0}")
+    private long pollInterval;
+
+    private final ResultSetExtractor<List<Change>> GET_CHANGES = rs -> {
+        final List<Change> result = new ArrayList<>();
+        int index = 0;
+        setFetchSize(rs, index);
+        while (rs.next()) {
+            result.add(new Change(rs.getLong("seq"), origin.equals(rs.getString("origin")), rs.getString("cache_name"), rs.getString("cache_key")));
+            setFetchSize(rs, index++);
+        }
+        return result;
+    };
+
+    public CacheLogDAO(DataSource dataSource) {
+        super(dataSource);
+    }
+
+    public boolean isEnabled() {
+        return pollInterval > 0;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void append(String cacheName, Collection<String> keys) {
+        if (!keys.isEmpty()) {
+            final long created = System.currentTimeMillis();
+            final List<Object[]> batch = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                batch.add(new Object[]{created, origin, cacheName, key});
+            }
+            batchUpdate("insert into bst_cache_log (created, origin, cache_name, cache_key) values (?, ?, ?, ?)", batch);
+        }
+    }
+
+    /**
+     * @return the last sequence number, 0 if log is empty
+     */
+    public long getLastSeq() {
+        return query("select max(seq) from bst_cache_log", rs -> rs.next() ? rs.getLong(1) : 0L);
+    }
+
+    /**
+     * @return changes since given sequence number (inclusive), ordered by it. Changes of this instance are returned too, so gaps in sequence could be detected
+     */
+    public List<Change> read(long since) {
+        return query("select seq, origin, cache_name, cache_key from bst_cache_log where seq >= ? order by seq", GET_CHANGES, since);
+    }
+
+    /**
+     * @param created timestamp, changes logged before it are deleted
+     */
+    public void deleteBefore(long created) {
+        update("delete from bst_cache_log where created < ?", created);
+    }
+
+    public static class Change {
+        public final long seq;
+        public final boolean own;
+        public final String cacheName;
+        public final String key;
+
+        public Change(long seq, boolean own, String cacheName, String key) {
+            this.seq = seq;
+            this.own = own;
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+    }
+}
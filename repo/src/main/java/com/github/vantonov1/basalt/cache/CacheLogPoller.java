@@ -0,0 +1,121 @@
+package com.github.vantonov1.basalt.cache;
+
+import com.github.vantonov1.basalt.repo.RetryingTransactionHelper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reads {@link CacheLogDAO cache log} and evicts keys changed by other instances from local L2 caches.
+ * <p>Poller keeps the last sequence number it has read. Sequence numbers are assigned on insert, so transactions could become visible out of order - numbers skipped below the last one are
+ * remembered, and re-read until they appear, or for cache.cluster.lookback milliseconds (10 seconds by default), after which they are considered rolled back.
+ * Log records older than cache.cluster.retention milliseconds (one hour by default) are deleted</p>
+ */
+@Component
+public class CacheLogPoller {
+    /**
+     * Identity could jump over cached or reserved values, such jumps are not remembered as gaps
+     */
+    private static final int MAX_GAP = 10000;
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final CacheLogDAO cacheLog;
+    private final TransactionalCacheManager cacheManager;
+    private final RetryingTransactionHelper transactionHelper;
+
+    @Value("${cache.cluster.lookback:10000}")
+    private long lookback;
+
+    @Value("${cache.cluster.retention:3600000}")
+    private long retention;
+
+    private ScheduledExecutorService executor;
+    private long watermark = -1;
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+    private long lastCleanup = System.currentTimeMillis();
+
+    public CacheLogPoller(CacheLogDAO cacheLog, TransactionalCacheManager cacheManager, PlatformTransactionManager transactionManager) {
+        this.cacheLog = cacheLog;
+        this.cacheManager = cacheManager;
+        this.transactionHelper = new RetryingTransactionHelper(transactionManager);
+    }
+
+    @PostConstruct
+    private void start() {
+        if (cacheLog.isEnabled()) {
+            try {
+                initWatermark();
+            } catch (Exception e) {
+                logger.warn("cache log is not available yet, will be read from the first poll", e);
+            }
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "basalt-cache-log");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::poll, cacheLog.getPollInterval(), cacheLog.getPollInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Evict changes made by other instances since the last poll
+     */
+    public synchronized void poll() {
+        try {
+            final long now = System.currentTimeMillis();
+            if (watermark < 0) {
+                initWatermark();
+                return;
+            }
+            gaps.values().removeIf(missed -> now - missed > lookback);
+            final long since = gaps.isEmpty() ? watermark + 1 : gaps.firstKey();
+            final List<CacheLogDAO.Change> changes = transactionHelper.doInTransaction("cacheLogPoll", true, () -> cacheLog.read(since));
+            for (CacheLogDAO.Change change : changes) {
+                if (change.seq > watermark) {
+                    for (long seq = Math.max(watermark + 1, change.seq - MAX_GAP); seq < change.seq; seq++) {
+                        gaps.put(seq, now);
+                    }
+                    watermark = change.seq;
+                } else if (gaps.remove(change.seq) == null) {
+                    continue;
+                }
+                if (!change.own) {
+                    cacheManager.evictL2(change.cacheName, CacheLogDAO.ALL_KEYS.equals(change.key) ? null : change.key);
+                }
+            }
+            if (retention > 0 && now - lastCleanup > retention / 10) {
+                transactionHelper.doInTransaction("cacheLogCleanup", false, () -> {
+                    cacheLog.deleteBefore(now - retention);
+                    return null;
+                });
+                lastCleanup = now;
+            }
+        } catch (Exception e) {
+            logger.error("while polling cache log", e);
+        }
+    }
+
+    private synchronized void initWatermark() {
+        if (watermark < 0) {
+            watermark = transactionHelper.doInTransaction("cacheLogPoll", true, cacheLog::getLastSeq);
+        }
+    }
+}
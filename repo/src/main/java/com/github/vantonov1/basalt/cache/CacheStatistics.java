@@ -0,0 +1,180 @@
+package com.github.vantonov1.basalt.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one {@link TransactionalCache}. Counters are striped, so recording does not contend between threads; reading sums all stripes
+ */
+public class CacheStatistics implements CacheStatisticsMXBean {
+    private final Cache l2Cache;
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder rejectedPuts = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder l2Lookups = new LongAdder();
+    private final LongAdder l2LookupNanos = new LongAdder();
+    private final long size;
+    private final long weight;
+
+    CacheStatistics(Cache l2Cache) {
+        this.l2Cache = l2Cache;
+        this.size = -1;
+        this.weight = -1;
+    }
+
+    private CacheStatistics(CacheStatistics source) {
+        this.l2Cache = null;
+        this.size = source.getSize();
+        this.weight = source.getWeight();
+        l1Hits.add(source.getL1Hits());
+        l2Hits.add(source.getL2Hits());
+        misses.add(source.getMisses());
+        puts.add(source.getPuts());
+        rejectedPuts.add(source.getRejectedPuts());
+        invalidations.add(source.getInvalidations());
+        conflicts.add(source.getConflicts());
+        l2Lookups.add(source.l2Lookups.sum());
+        l2LookupNanos.add(source.l2LookupNanos.sum());
+    }
+
+    /**
+     * @return copy of current values, not changed by further cache operations
+     */
+    public CacheStatistics snapshot() {
+        return new CacheStatistics(this);
+    }
+
+    /**
+     * @return number of values found in transaction-local cache
+     */
+    @Override
+    public long getL1Hits() {
+        return l1Hits.sum();
+    }
+
+    /**
+     * @return number of values found in shared cache
+     */
+    @Override
+    public long getL2Hits() {
+        return l2Hits.sum();
+    }
+
+    /**
+     * @return number of lookups, which had to go to the database. Keys changed by running transactions are always missed
+     */
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hits = getL1Hits() + getL2Hits();
+        final long total = hits + getMisses();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    /**
+     * @return number of values put to shared cache
+     */
+    @Override
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    /**
+     * @return number of values not put to shared cache, because they could be stale
+     */
+    @Override
+    public long getRejectedPuts() {
+        return rejectedPuts.sum();
+    }
+
+    /**
+     * @return number of keys evicted from shared cache after local or remote commit
+     */
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return number of keys changed while another transaction had them changed too
+     */
+    @Override
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    @Override
+    public double getAverageL2LookupNanos() {
+        final long lookups = l2Lookups.sum();
+        return lookups > 0 ? (double) l2LookupNanos.sum() / lookups : 0;
+    }
+
+    /**
+     * @return number of entries in shared cache, or -1 if unknown
+     */
+    @Override
+    public long getSize() {
+        if (l2Cache instanceof BoundedCache) {
+            return ((BoundedCache) l2Cache).size();
+        } else if (l2Cache instanceof OffHeapNodeCache) {
+            return ((OffHeapNodeCache) l2Cache).size();
+        }
+        return size;
+    }
+
+    /**
+     * @return total weight of entries in shared cache, or -1 if unknown
+     */
+    @Override
+    public long getWeight() {
+        return l2Cache instanceof BoundedCache ? ((BoundedCache) l2Cache).getWeight() : weight;
+    }
+
+    @Override
+    public void reset() {
+        l1Hits.reset();
+        l2Hits.reset();
+        misses.reset();
+        puts.reset();
+        rejectedPuts.reset();
+        invalidations.reset();
+        conflicts.reset();
+        l2Lookups.reset();
+        l2LookupNanos.reset();
+    }
+
+    void l1Hit() {
+        l1Hits.increment();
+    }
+
+    void l2Lookup(boolean hit, long nanos) {
+        (hit ? l2Hits : misses).increment();
+        l2Lookups.increment();
+        l2LookupNanos.add(nanos);
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void put(boolean accepted) {
+        (accepted ? puts : rejectedPuts).increment();
+    }
+
+    void invalidated() {
+        invalidations.increment();
+    }
+
+    void conflict() {
+        conflicts.increment();
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.vantonov1.basalt.cache;
+
+/**
+ * JMX view of {@link CacheStatistics}, registered as com.github.vantonov1.basalt:type=Cache,name=&lt;cache name&gt;
+ */
+public interface CacheStatisticsMXBean {
+    long getL1Hits();
+
+    long getL2Hits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getPuts();
+
+    long getRejectedPuts();
+
+    long getInvalidations();
+
+    long getConflicts();
+
+    double getAverageL2LookupNanos();
+
+    long getSize();
+
+    long getWeight();
+
+    void reset();
+}
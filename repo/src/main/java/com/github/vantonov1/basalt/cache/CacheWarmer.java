@@ -0,0 +1,216 @@
+package com.github.vantonov1.basalt.cache;
+
+import com.github.vantonov1.basalt.repo.AbstractJdbcDAO;
+import com.github.vantonov1.basalt.repo.RetryingTransactionHelper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Restores hot L2 cache entries after restart. Enabled by cache.warmup.file property.
+ * <p>Keys of the most frequently used entries (up to cache.warmup.keys per cache, 10000 by default) of every cache, filled by some {@link CacheLoader}, are saved to the file on shutdown
+ * and every cache.warmup.interval milliseconds (10 minutes by default). On startup keys are read back and loaded in batches by cache.warmup.threads background threads (2 by default),
+ * while the application already serves requests. Only {@link BoundedCache} keeps access frequencies, other caches are not saved</p>
+ */
+@Component
+public class CacheWarmer {
+    private static final char SEPARATOR = '\t';
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final CacheManager l2CacheManager;
+    private final RetryingTransactionHelper transactionHelper;
+    private final Map<String, CacheLoader> loaders = new LinkedHashMap<>();
+    private final Object saveLock = new Object();
+
+    @Value("${cache.warmup.file:}")
+    private String file;
+
+    @Value("${cache.warmup.keys:10000}")
+    private int maxKeys;
+
+    @Value("${cache.warmup.interval:600000}")
+    private long interval;
+
+    @Value("${cache.warmup.threads:2}")
+    private int threads;
+
+    private ScheduledExecutorService executor;
+
+    public CacheWarmer(CacheManager l2CacheManager, PlatformTransactionManager transactionManager) {
+        this.l2CacheManager = l2CacheManager;
+        this.transactionHelper = new RetryingTransactionHelper(transactionManager);
+    }
+
+    @Autowired(required = false)
+    public void setLoaders(List<CacheLoader> loaders) {
+        for (CacheLoader loader : loaders) {
+            for (String cacheName : loader.getCacheNames()) {
+                this.loaders.put(cacheName, loader);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return !file.isEmpty();
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (isEnabled() && executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+                final Thread thread = new Thread(r, "basalt-cache-warmer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            load();
+            if (interval > 0) {
+                executor.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Running scheduled save is waited for, so the final one does not write the same temporary file concurrently
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    logger.warn("cache warmer tasks are still running");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+            save();
+        }
+    }
+
+    /**
+     * Save hot keys of all caches to the file. Saves are serialized, as they share temporary file
+     */
+    public void save() {
+        if (isEnabled()) {
+            final Path path = Paths.get(file);
+            synchronized (saveLock) {
+                try {
+                    final Path tmp = Paths.get(file + ".tmp");
+                    int count = 0;
+                    try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                        for (String cacheName : loaders.keySet()) {
+                            for (Object key : getHotKeys(cacheName)) {
+                                writer.append(cacheName).append(SEPARATOR).append(key.toString());
+                                writer.newLine();
+                                count++;
+                            }
+                        }
+                    }
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    logger.debug(count + " hot keys saved to " + path);
+                } catch (IOException e) {
+                    logger.error("while saving hot keys to " + path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read keys from the file and load them in background
+     *
+     * @return number of loaded keys when all batches are done
+     */
+    public CompletableFuture<Integer> load() {
+        final ScheduledExecutorService executor = this.executor;
+        final Map<String, List<String>> keys = read();
+        if (executor == null || keys.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        final long start = System.currentTimeMillis();
+        final List<CompletableFuture<Integer>> batches = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : keys.entrySet()) {
+            final CacheLoader loader = loaders.get(entry.getKey());
+            for (List<String> batch : AbstractJdbcDAO.partition(entry.getValue())) {
+                batches.add(CompletableFuture.supplyAsync(() -> load(loader, entry.getKey(), batch), executor));
+            }
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    final int count = batches.stream().mapToInt(CompletableFuture::join).sum();
+                    logger.info(count + " hot keys loaded in " + (System.currentTimeMillis() - start) + " ms");
+                    return count;
+                });
+    }
+
+    private int load(CacheLoader loader, String cacheName, List<String> batch) {
+        try {
+            transactionHelper.doInTransaction("cacheWarmUp", true, () -> {
+                loader.load(cacheName, batch);
+                return null;
+            });
+            return batch.size();
+        } catch (Exception e) {
+            logger.warn("while loading " + cacheName + " cache", e);
+            return 0;
+        }
+    }
+
+    private Map<String, List<String>> read() {
+        final Path path = Paths.get(file);
+        if (!isEnabled() || !Files.exists(path)) {
+            return Collections.emptyMap();
+        }
+        final Map<String, List<String>> result = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(SEPARATOR);
+                if (separator > 0) {
+                    final String cacheName = line.substring(0, separator);
+                    if (loaders.containsKey(cacheName)) {
+                        result.computeIfAbsent(cacheName, k -> new ArrayList<>()).add(line.substring(separator + 1));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("while reading hot keys from " + path, e);
+        }
+        return result;
+    }
+
+    private Collection<Object> getHotKeys(String cacheName) {
+        final Cache cache = l2CacheManager.getCache(cacheName);
+        return cache instanceof BoundedCache ? ((BoundedCache) cache).getHotKeys(maxKeys) : Collections.emptyList();
+    }
+}
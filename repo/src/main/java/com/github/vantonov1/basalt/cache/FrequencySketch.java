@@ -0,0 +1,70 @@
+package com.github.vantonov1.basalt.cache;
+
+/**
+ * Count-Min sketch of key access frequencies, used by {@link BoundedCache} to decide, if new entry is worth to replace eviction candidate (TinyLFU admission).
+ * Counters are saturated at 15 and halved periodically, so the history ages out. Not thread safe
+ */
+class FrequencySketch {
+    private static final int MAX_WIDTH = 1 << 16;
+    private static final long[] SEEDS = {0x97cb3127L, 0xbf58476d1ce4e5b9L, 0x94d049bb133111ebL, 0x9e3779b97f4a7c15L};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int resetAt;
+    private int additions;
+
+    FrequencySketch(long expectedSize) {
+        int width = 16;
+        while (width < expectedSize * 4 && width < MAX_WIDTH) {
+            width <<= 1;
+        }
+        table = new byte[SEEDS.length][width];
+        mask = width - 1;
+        resetAt = (int) Math.min(Integer.MAX_VALUE, Math.max(width, expectedSize * 10));
+    }
+
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            if (table[i][index] < 15) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= resetAt) {
+            reset();
+        }
+    }
+
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            result = Math.min(result, table[i][index(hash, i)]);
+        }
+        return result;
+    }
+
+    private void reset() {
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,292 @@
+package com.github.vantonov1.basalt.cache;
+
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.impl.TypeConverter;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * L2 cache of {@link Node nodes}, stored outside of the heap in compact binary form. Only small index (key to address) is kept on heap, nodes are decoded on every get
+ * <p>Memory is allocated as fixed number of direct buffers (slabs), written sequentially. When all slabs are full, the oldest one is reused, and all entries stored there are dropped (FIFO eviction).
+ * Property names and node types are interned, numeric values are stored as primitives</p>
+ */
+public class OffHeapNodeCache extends AbstractValueAdaptingCache {
+    private static final int NULL_LENGTH = -1;
+
+    private final String name;
+    private final ByteBuffer[] slabs;
+    private final List<List<Object>> slabKeys;
+    private final Map<Object, Long> index = new ConcurrentHashMap<>();
+    private final Map<String, Integer> names = new ConcurrentHashMap<>();
+    private volatile String[] namesById = new String[1];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int current;
+
+    /**
+     * @param size total size of off-heap memory in bytes
+     * @param slabSize size of one slab (and max size of one encoded node) in bytes
+     */
+    public OffHeapNodeCache(String name, long size, int slabSize) {
+        super(false);
+        final int count = (int) Math.max(2, size / slabSize);
+        this.name = name;
+        this.slabs = new ByteBuffer[count];
+        this.slabKeys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            slabs[i] = ByteBuffer.allocateDirect(slabSize);
+            slabKeys.add(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return slabs;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        final byte[] bytes;
+        lock.readLock().lock();
+        try {
+            final Long address = index.get(key);
+            if (address == null) {
+                return null;
+            }
+            final ByteBuffer slab = slabs[(int) (address >>> 32)].duplicate();
+            slab.position((int) (long) address);
+            bytes = new byte[slab.getInt()];
+            slab.get(bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        final ValueWrapper wrapper = get(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        try {
+            final T value = valueLoader.call();
+            put(key, value);
+            return value;
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        final byte[] bytes = value instanceof Node ? encode((Node) value) : null;
+        lock.writeLock().lock();
+        try {
+            index.remove(key);
+            if (bytes != null && bytes.length + 4 <= slabs[current].capacity()) {
+                if (slabs[current].remaining() < bytes.length + 4) {
+                    current = (current + 1) % slabs.length;
+                    recycle(current);
+                }
+                final ByteBuffer slab = slabs[current];
+                final long address = ((long) current << 32) | slab.position();
+                slab.putInt(bytes.length);
+                slab.put(bytes);
+                slabKeys.get(current).add(key);
+                index.put(key, address);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        final ValueWrapper existing = get(key);
+        if (existing == null) {
+            put(key, value);
+            return null;
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        index.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            for (int i = 0; i < slabs.length; i++) {
+                slabs[i].clear();
+                slabKeys.get(i).clear();
+            }
+            current = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    private void recycle(int slab) {
+        for (Object key : slabKeys.get(slab)) {
+            final Long address = index.get(key);
+            if (address != null && (int) (address >>> 32) == slab) {
+                index.remove(key);
+            }
+        }
+        slabKeys.get(slab).clear();
+        slabs[slab].clear();
+    }
+
+    private byte[] encode(Node node) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, node.id);
+            out.writeInt(intern(node.type));
+            writeString(out, node.parent);
+            out.writeLong(node.modified != null ? node.modified.getTime() : Long.MIN_VALUE);
+            out.writeLong(node.txnVersion != null ? node.txnVersion : Long.MIN_VALUE);
+            out.writeByte(node.version == null ? 0 : node.version ? 1 : 2);
+            final Map<String, Serializable> properties = node.hasProperties() ? node.getProperties() : null;
+            out.writeInt(properties != null ? properties.size() : 0);
+            if (properties != null) {
+                for (Map.Entry<String, Serializable> entry : properties.entrySet()) {
+                    out.writeInt(intern(entry.getKey()));
+                    final Serializable value = entry.getValue();
+                    if (value instanceof Collection) {
+                        out.writeInt(-1 - ((Collection) value).size());
+                        for (Object v : (Collection) value) {
+                            writeValue(out, v);
+                        }
+                    } else {
+                        out.writeInt(1);
+                        writeValue(out, value);
+                    }
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Node decode(ByteBuffer in) {
+        final Node node = new Node(readString(in));
+        node.type = namesById[in.getInt()];
+        node.parent = readString(in);
+        final long modified = in.getLong();
+        node.modified = modified != Long.MIN_VALUE ? new Date(modified) : null;
+        final long txnVersion = in.getLong();
+        node.txnVersion = txnVersion != Long.MIN_VALUE ? txnVersion : null;
+        final byte version = in.get();
+        node.version = version == 0 ? null : version == 1;
+        final int count = in.getInt();
+        if (count > 0) {
+            final Map<String, Serializable> properties = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                final String name = namesById[in.getInt()];
+                final int size = in.getInt();
+                if (size < 0) {
+                    final ArrayList<Serializable> values = new ArrayList<>(-1 - size);
+                    for (int j = 0; j < -1 - size; j++) {
+                        values.add(readValue(in));
+                    }
+                    properties.put(name, values);
+                } else {
+                    properties.put(name, readValue(in));
+                }
+            }
+            node.getProperties().putAll(properties);
+        }
+        return node;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        final Object v = value instanceof Float ? Double.valueOf((Float) value) : value;
+        out.writeByte(TypeConverter.getType(v));
+        final Long n = TypeConverter.getNumeric(v);
+        out.writeBoolean(n != null);
+        if (n != null) {
+            out.writeLong(n);
+        } else {
+            writeString(out, TypeConverter.getString(v));
+        }
+    }
+
+    private static Serializable readValue(ByteBuffer in) {
+        final byte type = in.get();
+        return in.get() != 0 ? TypeConverter.convert(type, null, in.getLong()) : TypeConverter.convert(type, readString(in), 0);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int intern(String s) {
+        if (s == null) {
+            return 0;
+        }
+        final Integer id = names.get(s);
+        return id != null ? id : register(s);
+    }
+
+    private synchronized int register(String s) {
+        final Integer existing = names.get(s);
+        if (existing != null) {
+            return existing;
+        }
+        final String[] updated = new String[namesById.length + 1];
+        System.arraycopy(namesById, 0, updated, 0, namesById.length);
+        final int id = updated.length - 1;
+        updated[id] = s;
+        namesById = updated;
+        names.put(s, id);
+        return id;
+    }
+}
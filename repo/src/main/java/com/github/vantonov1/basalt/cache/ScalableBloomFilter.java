@@ -0,0 +1,111 @@
+package com.github.vantonov1.basalt.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Probabilistic set of strings: {@link #mightContain(String)} never returns false for added string, and returns true for absent one with the configured probability.
+ * Grows without rebuild - when current segment is full, the new one is added with double capacity and tighter false positive rate, so overall rate stays bounded.
+ * Strings could not be removed. Lookups are lock-free, additions are serialized
+ */
+public class ScalableBloomFilter {
+    private static final double TIGHTENING = 0.5;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private volatile Segment current;
+
+    /**
+     * @param initialCapacity expected number of strings in the first segment
+     * @param falsePositiveRate target false positive rate of the first segment, e.g. 0.01
+     */
+    public ScalableBloomFilter(int initialCapacity, double falsePositiveRate) {
+        if (initialCapacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("invalid bloom filter parameters: " + initialCapacity + ", " + falsePositiveRate);
+        }
+        current = new Segment(initialCapacity, falsePositiveRate * (1 - TIGHTENING));
+        segments.add(current);
+    }
+
+    public synchronized void put(String s) {
+        final long hash = hash(s);
+        if (!current.mightContain(hash)) {
+            if (current.count >= current.capacity) {
+                current = new Segment(current.capacity * 2, current.falsePositiveRate * TIGHTENING);
+                segments.add(current);
+            }
+            current.put(hash);
+        }
+    }
+
+    public boolean mightContain(String s) {
+        final long hash = hash(s);
+        for (Segment segment : segments) {
+            if (segment.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getBits() {
+        return segments.stream().mapToLong(segment -> segment.bits).sum();
+    }
+
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private static class Segment {
+        private final int capacity;
+        private final double falsePositiveRate;
+        private final long bits;
+        private final int hashes;
+        private final AtomicLongArray words;
+        private int count;
+
+        private Segment(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            this.bits = Math.max(64, (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+            this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * Math.log(2)));
+            this.words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+        }
+
+        private void put(long hash) {
+            final long h2 = mix(hash);
+            for (int i = 0; i < hashes; i++) {
+                final long bit = Long.remainderUnsigned(hash + i * h2, bits);
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                long value;
+                do {
+                    value = words.get(word);
+                } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+            }
+            count++;
+        }
+
+        private boolean mightContain(long hash) {
+            final long h2 = mix(hash);
+            for (int i = 0; i < hashes; i++) {
+                final long bit = Long.remainderUnsigned(hash + i * h2, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,47 +1,107 @@
 package com.github.vantonov1.basalt.cache;
 
+import com.github.vantonov1.basalt.repo.TransactionContext;
 import org.springframework.cache.Cache;
-import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
+/**
+ * Transaction-aware cache. Values read in transaction are kept in L1 (transaction-local) cache and shared L2 cache, keys changed in transaction are evicted from L2 after commit
+ * <p>Conflicts are tracked per key. Every key changed by running transactions is marked as in flight - L2 is not used for it until all these transactions complete.
+ * Every commit is stamped by cache-wide counter, and value loaded in another transaction is not put to L2, if the key was committed after the value has been read (so it could be stale).
+ * Concurrent changes of the same key are left to the database to serialize</p>
+ * <p>Large values, changed often by small deltas, could be {@link #update(String, UnaryOperator) updated} instead of removed - L2 value is kept, and delta is applied to it after commit</p>
+ * <p>Transaction-local state is kept in {@link TransactionContext}. Without transaction synchronization there is no L1 cache, and removed keys are evicted from L2 immediately</p>
+ */
 public class TransactionalCache<T> extends TransactionSynchronizationAdapter {
+    private static final int PRUNE_INTERVAL = 1024;
+
     private final String cacheName;
-    private final Set<String> l2Changed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>();
+    private final Map<LocalState<T>, Long> readers = new ConcurrentHashMap<>();
+    private final AtomicInteger completions = new AtomicInteger();
     private final Cache l2Cache;
+    private final CacheLogDAO cacheLog;
+    private final CacheStatistics statistics;
 
 
     public TransactionalCache(String cacheName, Cache cache) {
+        this(cacheName, cache, null);
+    }
+
+    /**
+     * @param cacheLog log to append committed changes to, if other instances should be notified
+     */
+    public TransactionalCache(String cacheName, Cache cache, CacheLogDAO cacheLog) {
         this.cacheName = cacheName;
         this.l2Cache = cache;
+        this.cacheLog = cacheLog;
+        this.statistics = new CacheStatistics(cache);
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
     }
 
     @SuppressWarnings("unchecked")
     public T get(String id) {
         if (id != null) {
-            T local = getFromL1(id);
-            if (local == null && !isMarkedAsChanged(id)) {
-                final Cache.ValueWrapper wrapper = l2Cache.get(id);
-                return wrapper != null ? (T) wrapper.get() : null;
+            final LocalState<T> local = getLocalState();
+            if (local != null) {
+                final T value = local.l1.get(id);
+                if (value != null) {
+                    statistics.l1Hit();
+                    return value;
+                }
+                if (local.changes.contains(id)) {
+                    statistics.miss();
+                    return null;
+                }
             }
-            return local;
-        } else {
-            return null;
+            if (isInFlight(id)) {
+                statistics.miss();
+            } else {
+                final long start = System.nanoTime();
+                final Object value = l2Cache.get(id, Object.class);
+                statistics.l2Lookup(value != null, System.nanoTime() - start);
+                if (value != null) {
+                    final Function<T, T> delta = local != null ? local.updates.get(id) : null;
+                    if (delta != null) {
+                        final T updated = delta.apply((T) value);
+                        local.l1.put(id, updated);
+                        return updated;
+                    }
+                    return (T) value;
+                }
+            }
+            stampRead(local, id);
         }
+        return null;
     }
 
     public void putExisting(String id, T value) {
         if (id != null && value != null) {
-            putToL1(id, value);
-            if (isReadonlyTX() || !isMarkedAsChanged(id)) {
-                l2Cache.put(id, value);
+            final LocalState<T> local = createLocalState();
+            if (local != null) {
+                local.l1.put(id, value);
+            }
+            if (local == null || isReadonlyTX() || !(local.changes.contains(id) || local.updates.containsKey(id))) {
+                final boolean accepted = !isStale(local, id);
+                if (accepted) {
+                    l2Cache.put(id, value);
+                }
+                statistics.put(accepted);
             }
         }
     }
@@ -49,116 +109,239 @@ public class TransactionalCache<T> extends TransactionSynchronizationAdapter {
     public void remove(String id) {
         if (id != null) {
             assert !isReadonlyTX();
-            removeFromL1(id);
-            markAsChanged(id);
+            final LocalState<T> local = createLocalState();
+            if (local != null) {
+                local.l1.remove(id);
+                local.updates.remove(id);
+                markAsChanged(local, id);
+            } else {
+                committed(id);
+                l2Cache.evict(id);
+                statistics.invalidated();
+            }
+        }
+    }
+
+    /**
+     * Change value without eviction: delta is applied to L1 value immediately, and to L2 value after commit. If the key is removed in the same transaction, removal wins.
+     * Delta should not modify its argument, and should be idempotent - L2 value could be loaded by another transaction after the change has been committed to the database
+     */
+    public void update(String id, UnaryOperator<T> delta) {
+        if (id != null && delta != null) {
+            assert !isReadonlyTX();
+            final LocalState<T> local = createLocalState();
+            if (local == null) {
+                applyL2(id, delta);
+            } else if (!local.changes.contains(id)) {
+                local.updates.merge(id, delta, Function::andThen);
+                final T value = local.l1.get(id);
+                if (value != null) {
+                    local.l1.put(id, delta.apply(value));
+                }
+            }
         }
     }
 
     public boolean isCached(String id) {
         if (id != null) {
-            final Map<String, T> l1 = getL1Cache();
-            return (l1 != null && l1.containsKey(id)) || (!l2Changed.contains(id) && (l2Cache.get(id) != null));
+            final LocalState<T> local = getLocalState();
+            return (local != null && local.l1.containsKey(id)) || (!isInFlight(id) && (l2Cache.get(id) != null));
         }
         return false;
     }
 
     public void clear() {
-        unbindResources();
+        final TransactionContext context = TransactionContext.current();
+        if (context != null) {
+            release(context.removeState(this));
+        }
         l2Cache.clear();
     }
 
+    void evictL2(String id) {
+        if (id != null) {
+            committed(id);
+            l2Cache.evict(id);
+            statistics.invalidated();
+        } else {
+            l2Cache.clear();
+        }
+    }
+
     @Override
-    public void afterCommit() {
-        final Set<String> changes = getLocalChanges();
-        if (changes != null) {
-            for (String id : changes) {
-                l2Cache.evict(id);
+    public void beforeCommit(boolean readOnly) {
+        final LocalState<T> local = getLocalState();
+        if (cacheLog != null && local != null) {
+            if (local.updates.isEmpty()) {
+                if (!local.changes.isEmpty()) {
+                    cacheLog.append(cacheName, local.changes);
+                }
+            } else {
+                final Set<String> changed = new HashSet<>(local.changes);
+                changed.addAll(local.updates.keySet());
+                cacheLog.append(cacheName, changed);
             }
         }
     }
 
     @Override
-    public void afterCompletion(int status) {
-        final Set<String> local = getLocalChanges();
+    public void afterCommit() {
+        final LocalState<T> local = getLocalState();
         if (local != null) {
-            for (String id : local) {
-                l2Changed.remove(id);
+            for (String id : local.changes) {
+                committed(id);
+                l2Cache.evict(id);
+                statistics.invalidated();
             }
+            local.updates.forEach(this::applyL2);
         }
-        unbindResources();
     }
 
-    private T getFromL1(String id) {
-        final Map<String, T> l1 = getL1Cache();
-        return l1 != null ? l1.get(id) : null;
+    @Override
+    public void afterCompletion(int status) {
+        final TransactionContext context = TransactionContext.current();
+        if (context != null) {
+            release(context.removeState(this));
+        }
+        if (completions.incrementAndGet() % PRUNE_INTERVAL == 0) {
+            prune();
+        }
     }
 
-    private void putToL1(String id, T value) {
-        Map<String, T> l1 = getL1Cache();
-        if (l1 == null) {
-            bindResources();
-            l1 = getL1Cache();
-            assert l1 != null;
+    /**
+     * Forget keys, which are not changed by running transactions and were committed before the oldest read stamp of running transactions
+     */
+    void prune() {
+        final long watermark = readers.values().stream().mapToLong(Long::longValue).min().orElse(clock.get());
+        for (String id : states.keySet()) {
+            states.computeIfPresent(id, (k, state) -> state.inFlight == 0 && state.lastCommit <= watermark ? null : state);
         }
-        l1.put(id, value);
     }
 
-    private void removeFromL1(String id) {
-        Map<String, T> l1 = getL1Cache();
-        if (l1 != null) {
-            l1.remove(id);
-        }
+    int getTrackedKeys() {
+        return states.size();
     }
 
-    private boolean isMarkedAsChanged(String id) {
-        final Set<String> localChanges = getLocalChanges();
-        return localChanges != null && localChanges.contains(id);
+    private LocalState<T> getLocalState() {
+        final TransactionContext context = TransactionContext.current();
+        return context != null ? context.getState(this) : null;
     }
 
+    private LocalState<T> createLocalState() {
+        final TransactionContext context = TransactionContext.get();
+        if (context == null) {
+            return null;
+        }
+        LocalState<T> local = context.getState(this);
+        if (local == null) {
+            local = context.putState(this, new LocalState<>(clock.get()));
+            readers.put(local, local.started);
+        }
+        return local;
+    }
 
-    private void markAsChanged(String id) {
-        Set<String> localChanges = getLocalChanges();
-        if (localChanges == null) {
-            bindResources();
-            localChanges = getLocalChanges();
-            assert localChanges != null;
+    private void markAsChanged(LocalState<T> local, String id) {
+        if (local.changes.add(id)) {
+            states.compute(id, (k, state) -> {
+                final KeyState result = state != null ? state : new KeyState();
+                if (result.inFlight++ > 0) {
+                    statistics.conflict();
+                }
+                return result;
+            });
         }
-        if (localChanges.add(id) && !l2Changed.add(id)) {
-            throw new OptimisticLockingFailureException("already in cache");
+    }
+
+    private void release(LocalState<T> local) {
+        if (local != null) {
+            readers.remove(local);
+            for (String id : local.changes) {
+                states.computeIfPresent(id, (k, state) -> {
+                    state.inFlight--;
+                    return state;
+                });
+            }
         }
     }
 
-    private boolean isReadonlyTX() {
-        return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    private void committed(String id) {
+        final long stamp = clock.incrementAndGet();
+        states.compute(id, (k, state) -> {
+            final KeyState result = state != null ? state : new KeyState();
+            result.lastCommit = stamp;
+            return result;
+        });
     }
 
+    /**
+     * Apply committed delta to L2 value. If the key is changed by running transaction, value is evicted instead - it could be removed or rolled back
+     */
     @SuppressWarnings("unchecked")
-    private Map<String, T> getL1Cache() {
-        return (Map<String, T>) TransactionSynchronizationManager.getResource(cacheName + "L1Cache");
+    private void applyL2(String id, Function<T, T> delta) {
+        final long stamp = clock.incrementAndGet();
+        states.compute(id, (k, state) -> {
+            final KeyState result = state != null ? state : new KeyState();
+            result.lastCommit = stamp;
+            if (result.inFlight > 0) {
+                l2Cache.evict(id);
+                statistics.invalidated();
+            } else {
+                final Object value = l2Cache.get(id, Object.class);
+                if (value != null) {
+                    l2Cache.put(id, delta.apply((T) value));
+                    statistics.put(true);
+                }
+            }
+            return result;
+        });
     }
 
-    @SuppressWarnings("unchecked")
-    private Set<String> getLocalChanges() {
-        return (Set<String>) TransactionSynchronizationManager.getResource(cacheName + "localChanges");
+    private boolean isInFlight(String id) {
+        final KeyState state = states.get(id);
+        return state != null && state.inFlight > 0;
     }
 
-    private void bindResources() {
-//        assert TransactionSynchronizationManager.isActualTransactionActive() : "transaction not started";
-        TransactionSynchronizationManager.bindResource(cacheName + "localChanges", new HashSet<>());
-        TransactionSynchronizationManager.bindResource(cacheName + "L1Cache", new HashMap<>());
-        if(TransactionSynchronizationManager.isActualTransactionActive()) {
-            TransactionSynchronizationManager.registerSynchronization(this);
+    private boolean isStale(LocalState<T> local, String id) {
+        final KeyState state = states.get(id);
+        if (state == null) {
+            return false;
         }
+        if (state.inFlight > 0) {
+            return true;
+        }
+        return local != null && state.lastCommit > local.readStamps.getOrDefault(id, local.started);
     }
 
-    private void unbindResources() {
-        final String L1Cache = cacheName + "L1Cache";
-        if (TransactionSynchronizationManager.hasResource(L1Cache)) {
-            TransactionSynchronizationManager.unbindResource(L1Cache);
+    private void stampRead(LocalState<T> local, String id) {
+        if (local == null && TransactionSynchronizationManager.isActualTransactionActive()) {
+            local = createLocalState();
         }
-        final String localChanges = cacheName + "localChanges";
-        if (TransactionSynchronizationManager.hasResource(localChanges)) {
-            TransactionSynchronizationManager.unbindResource(localChanges);
+        if (local != null) {
+            local.readStamps.putIfAbsent(id, clock.get());
+        }
+    }
+
+    private boolean isReadonlyTX() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    private static class KeyState {
+        private volatile int inFlight;
+        private volatile long lastCommit;
+    }
+
+    /**
+     * Transaction-local state: L1 cache, keys changed and updated in transaction and read stamps of keys missed in L2
+     */
+    private static class LocalState<T> {
+        private final Map<String, T> l1 = new HashMap<>();
+        private final Set<String> changes = new HashSet<>();
+        private final Map<String, Function<T, T>> updates = new HashMap<>();
+        private final Map<String, Long> readStamps = new HashMap<>();
+        private final long started;
+
+        private LocalState(long started) {
+            this.started = started;
         }
     }
 }
@@ -1,24 +1,60 @@
 package com.github.vantonov1.basalt.cache;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
 
 /**
  * Supports transaction-aware L1+L2 caching. Uses Spring Boot <a href="https://docs.spring.io/spring-boot/docs/current/reference/html/boot-features-caching.html">caching</a> for L2 cache
- * <p>If no {@link CacheManager} is defined in context, uses {@link org.springframework.cache.concurrent.ConcurrentMapCacheManager ConcurrentMapCacheManager} as default</p>
+ * <p>If no {@link CacheManager} is defined in context, uses {@link BoundedCacheManager} as default. Max weight of every cache is set by property cache.max.weight (100000 by default)
+ * or cache.&lt;name&gt;.max.weight, entries expire after cache.expire.after.access seconds without access (one hour by default, 0 to disable).
+ * If cache.nodes.off.heap.size (in bytes) is set, nodes are cached off-heap by {@link OffHeapNodeCache}</p>
+ * <p>Every cache collects {@link CacheStatistics}, available by {@link #getStatistics()} and as JMX MXBean com.github.vantonov1.basalt:type=Cache,name=&lt;name&gt; (unless cache.jmx is false)</p>
+ * <p>If several instances share the database, set cache.cluster.poll.interval (in milliseconds) - committed changes will be written to {@link CacheLogDAO cache log}, and evicted by {@link CacheLogPoller} of other instances</p>
  */
 @Component
 public class TransactionalCacheManager {
+    private final Log logger = LogFactory.getLog(getClass());
+
     private final CacheManager l2CacheManager;
     private final Map<String, TransactionalCache> caches = new ConcurrentHashMap<>();
 
+    private CacheLogDAO cacheLog;
+
+    @Value("${cache.jmx:true}")
+    private boolean jmx;
+
     public TransactionalCacheManager(CacheManager l2CacheManager) {
         this.l2CacheManager = l2CacheManager;
     }
 
+    @Autowired(required = false)
+    public void setCacheLog(CacheLogDAO cacheLog) {
+        this.cacheLog = cacheLog.isEnabled() ? cacheLog : null;
+    }
+
+    /**
+     * @return true if cache changes are shared with other instances through {@link CacheLogDAO cache log}
+     */
+    public boolean isClustered() {
+        return cacheLog != null;
+    }
+
     public boolean contains(String cacheName, String key) {
         final TransactionalCache cache = caches.get(cacheName);
         return cache != null && cache.isCached(key);
@@ -39,16 +75,62 @@ public class TransactionalCacheManager {
     }
 
     public void remove(String cacheName, String key) {
+        // changes should be tracked even if nothing is cached yet - value read later in the same transaction must not reach L2, and with cache log other instances could have it
+        createCache(cacheName).remove(key);
+    }
+
+    /**
+     * Change cached value by delta instead of removing it, see {@link TransactionalCache#update(String, UnaryOperator)}
+     */
+    @SuppressWarnings("unchecked")
+    public <V> void update(String cacheName, String key, UnaryOperator<V> delta) {
+        this.<V>createCache(cacheName).update(key, delta);
+    }
+
+    public void clear(String cacheName) {
         final TransactionalCache cache = caches.get(cacheName);
         if (cache != null) {
-            cache.remove(key);
+            cache.clear();
+        }
+        if (cacheLog != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+            cacheLog.append(cacheName, Collections.singleton(CacheLogDAO.ALL_KEYS));
         }
     }
 
-    public void clear(String cacheName) {
+    /**
+     * @return snapshot of statistics by cache name
+     */
+    public Map<String, CacheStatistics> getStatistics() {
+        final Map<String, CacheStatistics> result = new HashMap<>();
+        caches.forEach((name, cache) -> result.put(name, cache.getStatistics().snapshot()));
+        return result;
+    }
+
+    @PreDestroy
+    private void unregisterMBeans() {
+        if (jmx) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (String cacheName : caches.keySet()) {
+                try {
+                    final ObjectName name = getObjectName(cacheName);
+                    if (server.isRegistered(name)) {
+                        server.unregisterMBean(name);
+                    }
+                } catch (JMException e) {
+                    logger.warn("while unregistering statistics of " + cacheName, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evict from L2 cache only, used to apply changes made by other instances
+     * @param key key to evict, or null to clear the whole cache
+     */
+    void evictL2(String cacheName, String key) {
         final TransactionalCache cache = caches.get(cacheName);
         if (cache != null) {
-            cache.clear();
+            cache.evictL2(key);
         }
     }
 
@@ -59,11 +141,31 @@ public class TransactionalCacheManager {
             synchronized (caches) {
                 cache = caches.get(cacheName);
                 if (cache == null) {
-                    cache = new TransactionalCache<>(cacheName, l2CacheManager.getCache(cacheName));
+                    cache = new TransactionalCache<>(cacheName, l2CacheManager.getCache(cacheName), cacheLog);
                     caches.put(cacheName, cache);
+                    registerMBean(cacheName, cache.getStatistics());
                 }
             }
         }
         return cache;
     }
+
+    private void registerMBean(String cacheName, CacheStatistics statistics) {
+        if (jmx) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                final ObjectName name = getObjectName(cacheName);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(statistics, name);
+            } catch (JMException e) {
+                logger.warn("while registering statistics of " + cacheName, e);
+            }
+        }
+    }
+
+    private static ObjectName getObjectName(String cacheName) throws JMException {
+        return new ObjectName("com.github.vantonov1.basalt:type=Cache,name=" + ObjectName.quote(cacheName));
+    }
 }
@@ -0,0 +1,8 @@
+package com.github.vantonov1.basalt.cache;
+
+/**
+ * Cached value, which knows its weight for {@link BoundedCacheManager#DEFAULT_WEIGHER}
+ */
+public interface Weighted {
+    int getWeight();
+}
@@ -5,6 +5,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
@@ -30,6 +31,7 @@ import java.util.function.Supplier;
 
 public abstract class AbstractJdbcDAO {
     private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final Object WRITE_BEHIND = new Object();
 
     private final Log logger = LogFactory.getLog(getClass());
     private final JdbcTemplate jdbcTemplate;
@@ -41,9 +43,9 @@ public abstract class AbstractJdbcDAO {
         this.jdbcTemplate = new JdbcTemplate(dataSource);
     }
 
-    public static List<List<String>> partition(Collection<String> ids) {
-        final List<String> list = new ArrayList<>(ids);
-        final List<List<String>> result = new ArrayList<>((ids.size() - 1) / DEFAULT_BATCH_SIZE + 1);
+    public static <T> List<List<T>> partition(Collection<T> ids) {
+        final List<T> list = new ArrayList<>(ids);
+        final List<List<T>> result = new ArrayList<>((ids.size() - 1) / DEFAULT_BATCH_SIZE + 1);
         for (int i = 0; i < ids.size(); i += DEFAULT_BATCH_SIZE) {
             result.add(list.subList(i, Math.min(i + DEFAULT_BATCH_SIZE, ids.size())));
         }
@@ -62,10 +64,11 @@ public abstract class AbstractJdbcDAO {
 
     protected int update(String sql, Object... args) throws DataAccessException {
         checkTransaction();
+        beforeStatement();
         return log(sql, () -> jdbcTemplate.update(sql, args));
     }
 
-    protected void batchUpdate(String sql, List<Object[]> batch, final int keyIndex) {
+    protected int[] batchUpdate(String sql, List<Object[]> batch, final int keyIndex) {
         if (!batch.isEmpty()) {
             batch.sort((o1, o2) -> {
                 assert o1.length > keyIndex && o2.length > keyIndex;
@@ -73,25 +76,40 @@ public abstract class AbstractJdbcDAO {
                 return ((String) o1[keyIndex]).compareTo((String) o2[keyIndex]);
             });
         }
-        batchUpdate(sql, batch);
+        return batchUpdate(sql, batch);
     }
 
 
-    protected void batchUpdate(String sql, final List<Object[]> values) {
+    protected int[] batchUpdate(String sql, final List<Object[]> values) {
         if (!values.isEmpty()) {
             checkTransaction();
-            log(sql, () -> jdbcTemplate.batchUpdate(sql, new ListBatchPreparedStatementSetter(values)));
+            beforeStatement();
+            return log(sql, () -> jdbcTemplate.batchUpdate(sql, new ListBatchPreparedStatementSetter(values)));
         }
+        return new int[0];
     }
 
     protected <T> T query(String sql, ResultSetExtractor<T> rse, Object... args) throws DataAccessException {
+        beforeStatement();
         return log(sql, () -> jdbcTemplate.query(sql, args, rse));
     }
 
     protected <T> T query(String sql, int maxRows, ResultSetExtractor<T> rse) throws DataAccessException {
+        beforeStatement();
         return log(sql, () -> jdbcTemplate.execute(new LimitedRowsStatementCallback<>(sql, maxRows, rse)));
     }
 
+    protected <T> T query(String sql, int maxRows, ResultSetExtractor<T> rse, Object... args) throws DataAccessException {
+        beforeStatement();
+        return log(sql, () -> jdbcTemplate.query(con -> {
+            final PreparedStatement ps = con.prepareStatement(sql);
+            if (maxRows > 0) {
+                ps.setMaxRows(maxRows);
+            }
+            return ps;
+        }, new ArgumentPreparedStatementSetter(args), rse));
+    }
+
     protected <T> List<T> queryBulk(String query, String field, Collection<String> ids, int maxRows, ResultSetExtractor<List<T>> extractor) {
         if (ids != null && !ids.isEmpty()) {
             if (ids.size() > DEFAULT_BATCH_SIZE) {
@@ -123,6 +141,38 @@ public abstract class AbstractJdbcDAO {
         }
     }
 
+    /**
+     * Write changes, postponed in current transaction. Called automatically before statement of any DAO, if this one was registered by {@link #writeBehind()}
+     */
+    public void flush() {
+    }
+
+    /**
+     * Register this DAO as having postponed changes in current transaction, so they are flushed before statement of any DAO, not only of this one
+     */
+    protected void writeBehind() {
+        final TransactionContext context = TransactionContext.get();
+        if (context != null) {
+            List<AbstractJdbcDAO> pending = context.getState(WRITE_BEHIND);
+            if (pending == null) {
+                pending = context.putState(WRITE_BEHIND, new ArrayList<>(2));
+            }
+            if (!pending.contains(this)) {
+                pending.add(this);
+            }
+        }
+    }
+
+    private static void beforeStatement() {
+        final TransactionContext context = TransactionContext.current();
+        final List<AbstractJdbcDAO> pending = context != null ? context.getState(WRITE_BEHIND) : null;
+        if (pending != null) {
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).flush();
+            }
+        }
+    }
+
     private static void checkTransaction() {
         if (!TransactionSynchronizationManager.isActualTransactionActive()) {
             throw new IllegalTransactionStateException("transaction required");
@@ -145,11 +195,13 @@ public abstract class AbstractJdbcDAO {
         private final StringBuilder builder;
         private final List<Object> values = new ArrayList<>();
         private boolean hasFilter;
+        private boolean hasSet;
         private int maxRows;
 
         public Query(String prefix) {
             builder = new StringBuilder(prefix);
             hasFilter = prefix.contains("where");
+            hasSet = prefix.contains(" set ");
         }
 
         public Query setMaxRows(int maxRows) {
@@ -160,7 +212,8 @@ public abstract class AbstractJdbcDAO {
         public Query set(String field, Object value) {
             if (value != null) {
                 values.add(value);
-                builder.append(" set ").append(field).append("=?");
+                builder.append(hasSet ? ", " : " set ").append(field).append("=?");
+                hasSet = true;
             }
             return this;
         }
@@ -229,10 +282,10 @@ public abstract class AbstractJdbcDAO {
 
         public <T> T run(ResultSetExtractor<T> extractor) {
             final String sql = builder.toString();
+            final Object[] args = values.toArray(new Object[values.size()]);
             if (maxRows != 0) {
-                return query(sql, maxRows, extractor);
+                return args.length > 0 ? query(sql, maxRows, extractor, args) : query(sql, maxRows, extractor);
             } else {
-                final Object[] args = values.toArray(new Object[values.size()]);
                 return query(sql, extractor, args);
             }
         }
@@ -1,5 +1,7 @@
 package com.github.vantonov1.basalt.repo;
 
+import java.util.Objects;
+
 /**
  * Information about association between {@link Node}, returned by {@link NodeService}<br>
  * Associations are close to UML - they are directional (have source and target), have type (classifier) and optionally name (role)
@@ -29,7 +31,7 @@ public class Assoc {
 
         final Assoc assoc = (Assoc) o;
 
-        return type.equals(assoc.type) && name.equals(assoc.name) && source.equals(assoc.source) && target.equals(assoc.target);
+        return type.equals(assoc.type) && Objects.equals(name, assoc.name) && Objects.equals(source, assoc.source) && Objects.equals(target, assoc.target);
     }
 
     @Override
@@ -0,0 +1,48 @@
+package com.github.vantonov1.basalt.repo;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with decorrelated jitter: every delay is random between base delay and three times the previous delay, limited by max delay.
+ * Retries are limited both by number of attempts and by total time budget of one callback execution
+ */
+public class DecorrelatedJitterRetryPolicy implements RetryPolicy {
+    public static final RetryPolicy DEFAULT = new DecorrelatedJitterRetryPolicy(20, 1000, 100, 60000);
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxRetries;
+    private final long budget;
+
+    /**
+     * @param baseDelay min delay in milliseconds
+     * @param maxDelay max delay in milliseconds
+     * @param maxRetries max number of retries
+     * @param budget max time in milliseconds to spend on one callback including retries, not used if &lt;= 0
+     */
+    public DecorrelatedJitterRetryPolicy(long baseDelay, long maxDelay, int maxRetries, long budget) {
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("invalid delays: " + baseDelay + ", " + maxDelay);
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetries = maxRetries;
+        this.budget = budget;
+    }
+
+    @Override
+    public long nextDelay(int attempt, long previousDelay, long elapsed) {
+        if (attempt > maxRetries) {
+            return -1;
+        }
+        final long upper = Math.max(baseDelay, previousDelay * 3);
+        long delay = Math.min(maxDelay, ThreadLocalRandom.current().nextLong(baseDelay, upper + 1));
+        if (budget > 0 && elapsed + delay > budget) {
+            delay = budget - elapsed;
+            if (delay <= 0) {
+                return -1;
+            }
+        }
+        return delay;
+    }
+}
@@ -8,7 +8,8 @@ import java.util.Objects;
 
 /**
  * Repository contains nodes. Every node has unique id, assigned during creation. Also, node could have type (to filter during search), primary parent (to support cascade deletion) and a number of named properties. Node could be marked as version (historical record), such nodes are skipped during search
- * <p>Repository automatically updates timestamp of last modification</p>
+ * <p>Repository automatically updates timestamp of last modification and transaction version. Version is monotonically increasing counter, used for optimistic locking -
+ * provide version read earlier in {@link NodeService#updateProperties(Node, boolean) updateProperties()} to update node only if it was not changed since then</p>
  * <p>Properties names and values have limits on length, defined by schema</p>
  */
 public class Node implements Cloneable {
@@ -16,6 +17,7 @@ public class Node implements Cloneable {
     public String type;
     public String parent;
     public Date modified;
+    public Long txnVersion;
     public Boolean version;
     private Map<String, Serializable> properties;
 
@@ -42,6 +44,7 @@ public class Node implements Cloneable {
         this.id = node.id;
         this.parent = node.parent;
         this.modified = node.modified;
+        this.txnVersion = node.txnVersion;
         this.version = node.version;
         this.properties = node.properties;
     }
@@ -86,6 +89,7 @@ public class Node implements Cloneable {
         result.id = id;
         result.parent = parent;
         result.modified = modified;
+        result.txnVersion = txnVersion;
         result.version = version;
         if (properties instanceof HashMap) {
             result.properties = (Map<String, Serializable>) ((HashMap<String, Serializable>) properties).clone();
@@ -104,6 +108,7 @@ public class Node implements Cloneable {
 
         return  Objects.equals(id,  node.id)
         && Objects.equals(modified,  node.modified)
+        && Objects.equals(txnVersion,  node.txnVersion)
         && Objects.equals(parent,  node.parent)
         && Objects.equals(properties,  node.properties)
         && Objects.equals(type,  node.type)
@@ -112,7 +117,7 @@ public class Node implements Cloneable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, type, modified, parent, version);
+        return Objects.hash(id, type, modified, txnVersion, parent, version);
     }
 }
 
@@ -46,9 +46,9 @@ public interface NodeService {
     @NonNull Map<String, Collection<String>> createNodes(@NonNull Map<String, Collection<Node>> nodesInParent, @Nullable String assocType);
 
     /**
-     * Updates node properties. Node id could not be changed after creation. Node modified timestamp is updated automatically
+     * Updates node properties. Node id could not be changed after creation. Node modified timestamp and transaction version are updated automatically
      * <p>{@link org.springframework.dao.OptimisticLockingFailureException OptimisticLockingFailureException} could be thrown. Use {@link RetryingTransactionHelper}, or rollback and retry transactions in your code</p>
-     * @param updated properties
+     * @param updated properties. If updated.txnVersion is set, node is updated only if it still has that version (conditional update without reading the node)
      * @param deleteOld if set, delete all properties except provided, otherwise only add and update
      */
     void updateProperties(@NonNull Node updated, boolean deleteOld);
@@ -79,6 +79,27 @@ public interface NodeService {
      */
     void setProperty(@NonNull Collection<String> ids, @NonNull String name, Serializable value);
 
+    /**
+     * Atomically add delta to integral (int or long) property, property is created if absent. Executed as single update statement, without reading of the old value.
+     * Node modified timestamp and version are not changed, so concurrent increments are serialized by DBMS row locks instead of optimistic locking
+     * @param id node GUID
+     * @param name property name
+     * @param delta value to add, could be negative
+     * @return new property value
+     * @throws IllegalArgumentException if property is not integral, or it is int and the result does not fit into int
+     */
+    long increment(@NonNull String id, @NonNull String name, long delta);
+
+    /**
+     * Atomically set property, if it has expected value. Executed as single update statement (absent property is inserted under node row lock), node modified timestamp and version are not changed. Collections are not supported
+     * @param id node GUID
+     * @param name property name
+     * @param expected expected current value, null means property should not exist
+     * @param value new value (remove property if null)
+     * @return true if property was set
+     */
+    boolean compareAndSet(@NonNull String id, @NonNull String name, @Nullable Serializable expected, @Nullable Serializable value);
+
     /**
      * Remove property by name
      * <p>{@link org.springframework.dao.OptimisticLockingFailureException OptimisticLockingFailureException} could be thrown. Use {@link RetryingTransactionHelper}, or rollback and retry transactions in your code</p>
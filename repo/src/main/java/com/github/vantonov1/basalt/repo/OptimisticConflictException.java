@@ -0,0 +1,19 @@
+package com.github.vantonov1.basalt.repo;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+/**
+ * Optimistic locking failure, which knows conflicting resource (table or cache name). Resource is used as conflict key in {@link RetryStatistics}
+ */
+public class OptimisticConflictException extends OptimisticLockingFailureException {
+    private final String source;
+
+    public OptimisticConflictException(String msg, String source) {
+        super(msg);
+        this.source = source;
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.vantonov1.basalt.repo;
+
+import java.util.List;
+
+/**
+ * Page of search results, returned by {@link SearchService#search(QueryBuilder, String, String, int)}<br>
+ * Continuation token is opaque, pass it to get the next page. Paging is keyset based, so nodes added or removed before the token do not shift the following pages
+ */
+public class Page<T> {
+    public final List<T> items;
+    public final String next;
+
+    public Page(List<T> items, String next) {
+        assert items != null;
+        this.items = items;
+        this.next = next;
+    }
+
+    /**
+     * @return true if there are more results, and {@link #next} is not null
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" +
+                "items=" + items +
+                ", next='" + next + '\'' +
+                '}';
+    }
+}
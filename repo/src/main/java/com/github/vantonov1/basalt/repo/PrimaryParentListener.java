@@ -0,0 +1,22 @@
+package com.github.vantonov1.basalt.repo;
+
+import java.util.Collection;
+
+/**
+ * Interface for plugged-in components, which keep data derived from primary parents hierarchy (effective ACLs, for example).
+ * Repository injects optional beans, implementing that interface, and calls their methods in the same transaction after hierarchy is changed
+ */
+public interface PrimaryParentListener {
+    /**
+     * @param parentId primary parent of created nodes
+     * @param ids created nodes GUIDs
+     */
+    void created(String parentId, Collection<String> ids);
+
+    /**
+     * @param id node GUID
+     * @param from previous primary parent, could be null
+     * @param to new primary parent, could be null
+     */
+    void moved(String id, String from, String to);
+}
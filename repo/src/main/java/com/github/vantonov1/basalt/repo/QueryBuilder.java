@@ -6,7 +6,12 @@ import org.springframework.lang.Nullable;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -31,8 +36,14 @@ import java.util.stream.Collectors;
  * oneOf()
  * statement4 OR (statement5 AND statement6 ...) OR ...
  * </pre>
+ * Permission filter {@link #readableBy} is applied to the whole query, wherever it was called
  */
 public class QueryBuilder {
+    /**
+     * Authority representing everyone, its entry is the last one checked by {@link #readableBy}
+     */
+    public static final String AUTHORITY_WORLD = "S0000000-0001-0001-0000-000000000000";
+
     private static final String OPERATOR_DIFFERENT = "<>";
     private static final String OPERATOR_NOT = "not ";
     private static final String OPERATOR_LTE = "<=";
@@ -52,6 +63,13 @@ public class QueryBuilder {
     private boolean hasOr;
     private boolean hasParentAssoc;
     private boolean hasChildAssoc;
+    private final Set<String> types = new HashSet<>();
+    private final Set<String> propertyNames = new HashSet<>();
+    private boolean dependsOnAssocs;
+    private boolean dependsOnParents;
+    private boolean dependsOnAcls;
+    private String permissionFilter;
+    private boolean hasWhere;
 
     /**
      * Builds resulting query string. Query could not be changed after that call. Called by {@link SearchService}
@@ -77,14 +95,29 @@ public class QueryBuilder {
                 query.append(')');
             }
             final String q = query.toString();
+            hasWhere = !q.isEmpty() || permissionFilter != null;
             if (!q.isEmpty()) {
                 result.append(" where ");
-                result.append(q);
+                if (permissionFilter != null) {
+                    result.append('(').append(q).append(')').append(QUERY_FILTER_AND).append(permissionFilter);
+                } else {
+                    result.append(q);
+                }
+            } else if (permissionFilter != null) {
+                result.append(" where ").append(permissionFilter);
             }
         }
         return result.toString();
     }
 
+    /**
+     * @return true if query string from {@link #build()} has where clause, so more conditions should be appended with <code>and</code>
+     */
+    public boolean hasWhere() {
+        build();
+        return hasWhere;
+    }
+
     /**
      * Type filter. Generate <code>type IN(...)</code> or type = <code>?</code>
      */
@@ -97,6 +130,7 @@ public class QueryBuilder {
      */
     public QueryBuilder type(Collection<String> types) {
         if (!isEmpty(types)) {
+            this.types.addAll(types);
             andOr();
             if (types.size() == 1) {
                 query.append("n.class='").append(types.iterator().next()).append("' ");
@@ -226,6 +260,7 @@ public class QueryBuilder {
     public QueryBuilder primaryParent(String parentId) {
         if (parentId != null) {
             andOr();
+            dependsOnParents = true;
             query.append("n.parent=").append(parentId);
         }
         return this;
@@ -269,6 +304,22 @@ public class QueryBuilder {
             query.append("pa.source='").append(join(Arrays.asList(parents), "' and pa.source'")).append('\'');
         }
         hasParentAssoc = true;
+        dependsOnAssocs = true;
+        return this;
+    }
+
+    /**
+     * Filter by being child of the node, optionally by association type. Joins with associations and generate <code>source=? AND type=?</code>
+     */
+    public QueryBuilder childOf(@NonNull String parent, @Nullable String assocType) {
+        andOr();
+        query.append("(pa.source='").append(quote(parent)).append('\'');
+        if (assocType != null) {
+            query.append(QUERY_FILTER_AND).append("pa.type='").append(quote(assocType)).append('\'');
+        }
+        query.append(')');
+        hasParentAssoc = true;
+        dependsOnAssocs = true;
         return this;
     }
 
@@ -284,6 +335,7 @@ public class QueryBuilder {
             query.append("source in ('").append(join(Arrays.asList(parents), "','")).append(')');
         }
         query.append(')');
+        dependsOnAssocs = true;
         return this;
     }
 
@@ -298,6 +350,7 @@ public class QueryBuilder {
             query.append("ca.target='").append(join(Arrays.asList(children), "' and ca.target'")).append('\'');
         }
         hasChildAssoc = true;
+        dependsOnAssocs = true;
         return this;
     }
 
@@ -313,6 +366,7 @@ public class QueryBuilder {
             query.append("target in ('").append(join(Arrays.asList(parents), "','")).append(')');
         }
         query.append(')');
+        dependsOnAssocs = true;
         return this;
     }
 
@@ -324,6 +378,7 @@ public class QueryBuilder {
         query.append(" (");
         fillPropName(name);
         query.append(QUERY_FILTER_AND);
+        propertyNames.add(referencedName);
         query.append('p').append(joinCount).append(".value_s in (select node_id from bst_props where name=").append(referencedName).append(" and value_s");
         if (referencedValue instanceof String && ((String) referencedValue).indexOf('*') != -1) {
             query.append(OPERATOR_LIKE).append(((String) referencedValue).replace('*', '%'));
@@ -335,6 +390,31 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * Permission filter - only nodes, where authority or its membership groups have any of mask bits, are returned, so limit and count apply to accessible nodes only.
+     * Rules are the same as of AclService: node without ACL inherits ACL of the nearest primary parent which has one, node without ACL in the whole hierarchy is accessible to everyone.
+     * Entry for the authority takes precedence over entries for membership groups, and them over entry for AUTHORITY_WORLD. If membership groups have conflicting entries, the first of them in membership iteration order decides
+     * <p>Filter uses effective (explicit or inherited) ACL set of the node, kept in bst_node.acl_id by AclService</p>
+     * @param authority authority GUID
+     * @param membership GUIDs of groups containing the authority
+     * @param mask access mask, e.g. AclService.MASK_READ
+     */
+    public QueryBuilder readableBy(@Nullable String authority, @Nullable Collection<String> membership, int mask) {
+        if (permissionFilter != null) {
+            throw new IllegalStateException("readableBy() can't be called twice");
+        }
+        if (mask == 0) {
+            throw new IllegalArgumentException("access mask is empty");
+        }
+        final StringBuilder filter = new StringBuilder(1024);
+        filter.append("(n.acl_id is null or ");
+        appendGrants(filter, authority, membership, mask);
+        filter.append(')');
+        permissionFilter = filter.toString();
+        dependsOnAcls = true;
+        return this;
+    }
+
     /**
      * Starts second part of the query, where properties should match at least one of expressions
      */
@@ -381,6 +461,41 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * @return node types used in the query, empty if query could match nodes of any type
+     */
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * @return names of properties used in the query
+     */
+    public Set<String> getPropertyNames() {
+        return Collections.unmodifiableSet(propertyNames);
+    }
+
+    /**
+     * @return true if query result depends on associations
+     */
+    public boolean dependsOnAssocs() {
+        return dependsOnAssocs;
+    }
+
+    /**
+     * @return true if query result depends on primary parents
+     */
+    public boolean dependsOnParents() {
+        return dependsOnParents;
+    }
+
+    /**
+     * @return true if query result depends on ACLs
+     */
+    public boolean dependsOnAcls() {
+        return dependsOnAcls;
+    }
+
     /**
      * Utility method to check, if query contains expressions
      */
@@ -445,6 +560,7 @@ public class QueryBuilder {
     }
 
     private void fillPropName(String propName, String tableName) {
+        propertyNames.add(propName);
         query
                 .append(tableName)
                 .append(".name = '")
@@ -457,6 +573,56 @@ public class QueryBuilder {
         return list == null || list.isEmpty();
     }
 
+    /**
+     * Entry for the authority decides, if present. Otherwise entries for groups decide, and then entry for everyone
+     */
+    private static void appendGrants(StringBuilder filter, String authority, Collection<String> membership, int mask) {
+        final Set<String> sids = new LinkedHashSet<>();
+        if (authority != null) {
+            sids.add(authority);
+        }
+        if (membership != null) {
+            membership.stream().filter(Objects::nonNull).forEach(sids::add);
+        }
+        filter.append('(');
+        int parentheses = 0;
+        for (String sid : sids) {
+            filter.append("(exists (select 1 from bst_acl_entry where acl_id = n.acl_id and authority_id='").append(quote(sid)).append('\'').append(QUERY_FILTER_AND);
+            appendMask(filter, mask);
+            filter.append(")").append(QUERY_FILTER_OR).append("not exists (select 1 from bst_acl_entry where acl_id = n.acl_id and authority_id='").append(quote(sid)).append("') and ");
+            parentheses++;
+        }
+        filter.append("exists (select 1 from bst_acl_entry where acl_id = n.acl_id and authority_id='").append(AUTHORITY_WORLD).append('\'').append(QUERY_FILTER_AND);
+        appendMask(filter, mask);
+        filter.append(')');
+        for (int i = 0; i < parentheses; i++) {
+            filter.append(')');
+        }
+        filter.append(')');
+    }
+
+    /**
+     * Portable test if mask column has any of bits, without bitwise operators
+     */
+    private static void appendMask(StringBuilder filter, int mask) {
+        filter.append('(');
+        boolean first = true;
+        for (int bit = 1; bit > 0 && bit <= mask; bit <<= 1) {
+            if ((mask & bit) != 0) {
+                if (!first) {
+                    filter.append(QUERY_FILTER_OR);
+                }
+                filter.append("floor(mask / ").append(bit).append(") - 2 * floor(mask / ").append(bit * 2L).append(") = 1");
+                first = false;
+            }
+        }
+        filter.append(')');
+    }
+
+    private static String quote(String value) {
+        return value.replace("'", "''");
+    }
+
     private static String safeTemplate(String template) {
         return template.replaceAll("\\\\", "").replaceAll("\"", "\\\\\"");
     }
@@ -0,0 +1,17 @@
+package com.github.vantonov1.basalt.repo;
+
+/**
+ * Decides if and when {@link RetryingTransactionHelper} should repeat failed transaction
+ * @see DecorrelatedJitterRetryPolicy
+ */
+@FunctionalInterface
+public interface RetryPolicy {
+    /**
+     * Calculates delay before the next attempt
+     * @param attempt number of failed attempts, starting from 1
+     * @param previousDelay delay before the previous attempt in milliseconds, 0 for the first retry
+     * @param elapsed milliseconds since the first attempt was started
+     * @return delay in milliseconds, or negative value to give up
+     */
+    long nextDelay(int attempt, long previousDelay, long elapsed);
+}
@@ -0,0 +1,115 @@
+package com.github.vantonov1.basalt.repo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of {@link RetryingTransactionHelper} executions, collected by operation name
+ * <p>Histograms have exponential buckets - bucket 0 counts values below 1 ms, bucket i counts values from 2^(i-1) to 2^i ms, last bucket counts everything above</p>
+ */
+public class RetryStatistics {
+    public static final int BUCKETS = 18;
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public Operation get(String operation) {
+        return operations.computeIfAbsent(operation, k -> new Operation());
+    }
+
+    public Map<String, Operation> getOperations() {
+        return Collections.unmodifiableMap(operations);
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+
+    public static class Operation {
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder giveUps = new LongAdder();
+        private final Map<String, LongAdder> conflicts = new ConcurrentHashMap<>();
+        private final Histogram latency = new Histogram();
+        private final Histogram retryDelays = new Histogram();
+
+        /**
+         * @return number of finished executions, successful or not
+         */
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * @return number of executions failed because retry policy gave up
+         */
+        public long getGiveUps() {
+            return giveUps.sum();
+        }
+
+        /**
+         * @return number of transient failures by conflict key (table or cache name, or exception class)
+         */
+        public Map<String, Long> getConflicts() {
+            final Map<String, Long> result = new HashMap<>();
+            conflicts.forEach((k, v) -> result.put(k, v.sum()));
+            return result;
+        }
+
+        /**
+         * @return histogram of execution time, retries included
+         */
+        public long[] getLatency() {
+            return latency.snapshot();
+        }
+
+        public long[] getRetryDelays() {
+            return retryDelays.snapshot();
+        }
+
+        void conflict(String key) {
+            conflicts.computeIfAbsent(key, k -> new LongAdder()).increment();
+        }
+
+        void retried(long delay) {
+            retries.increment();
+            retryDelays.record(delay);
+        }
+
+        void finished(long elapsed, boolean gaveUp) {
+            executions.increment();
+            latency.record(elapsed);
+            if (gaveUp) {
+                giveUps.increment();
+            }
+        }
+    }
+
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long millis) {
+            buckets[millis <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis))].increment();
+        }
+
+        private long[] snapshot() {
+            final long[] result = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] = buckets[i].sum();
+            }
+            return result;
+        }
+    }
+}
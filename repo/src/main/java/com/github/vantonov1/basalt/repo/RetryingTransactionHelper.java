@@ -7,17 +7,27 @@ import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Utility class to support transactions  with optimistic locking. Execution inside {@link RetryingTransactionHelper#doInTransaction} will be automatically retried in case of {@link TransientDataAccessException} up to 100 times
+ * Utility class to support transactions  with optimistic locking. Execution inside {@link RetryingTransactionHelper#doInTransaction} will be automatically retried in case of {@link TransientDataAccessException},
+ * as long as {@link RetryPolicy} allows (by default, {@link DecorrelatedJitterRetryPolicy#DEFAULT} - up to 100 times, but no longer than one minute)
+ * <p>{@link RetryingTransactionHelper#doInTransactionAsync} runs callback on configurable executor (virtual threads on JDK 21+), retries are scheduled by timer instead of blocking a thread</p>
+ * <p>Retries, conflicts and give-ups are counted by operation name in {@link RetryStatistics}. Unless provided in constructor, statistics are shared by all helpers</p>
  */
 @SuppressWarnings("unused")
 public class RetryingTransactionHelper {
-    private static final int MAX_RETRIES = 100;
-    private static final int MIN_RETRY_WAIT = 200;
-    private static final int MAX_RETRY_WAIT = 1000;
-    private static final int RETRY_WAIT_INCREMENT = 100;
+    private static final RetryStatistics DEFAULT_STATISTICS = new RetryStatistics();
 
     private final Log logger = LogFactory.getLog(getClass());
 
@@ -27,54 +37,137 @@ public class RetryingTransactionHelper {
     }
 
     private final PlatformTransactionManager transactionManager;
+    private final RetryPolicy retryPolicy;
+    private final RetryStatistics statistics;
+    private final Executor executor;
 
     public RetryingTransactionHelper(PlatformTransactionManager transactionManager) {
+        this(transactionManager, DecorrelatedJitterRetryPolicy.DEFAULT, DEFAULT_STATISTICS);
+    }
+
+    public RetryingTransactionHelper(PlatformTransactionManager transactionManager, RetryPolicy retryPolicy, RetryStatistics statistics) {
+        this(transactionManager, retryPolicy, statistics, getDefaultExecutor());
+    }
+
+    /**
+     * @param executor executor for {@link RetryingTransactionHelper#doInTransactionAsync} callbacks
+     */
+    public RetryingTransactionHelper(PlatformTransactionManager transactionManager, RetryPolicy retryPolicy, RetryStatistics statistics, Executor executor) {
         this.transactionManager = transactionManager;
+        this.retryPolicy = retryPolicy;
+        this.statistics = statistics;
+        this.executor = executor;
+    }
+
+    public static RetryStatistics getDefaultStatistics() {
+        return DEFAULT_STATISTICS;
     }
 
     /**
-     * Execute arbitrary code inside transaction. Transaction is automatically rolled back and repeated in case of transient exceptions, probably related to optimistic locking
+     * Execute arbitrary code inside transaction. Transaction is automatically rolled back and repeated in case of transient exceptions, probably related to optimistic locking.
+     * Statistics are collected under the name of class, where callback is declared
      * @return value returned by callback
      */
     public <T> T doInTransaction(boolean readOnly, TransactionCallback<T> cb) {
-        final Random random = new Random(System.currentTimeMillis());
-        RuntimeException lastException = null;
-        for (int count = 0; count < MAX_RETRIES; count++) {
-            Object tx = null;
+        return doInTransaction(getOperationName(cb), readOnly, retryPolicy, cb);
+    }
+
+    /**
+     * Execute arbitrary code inside transaction, collecting statistics under given operation name
+     * @return value returned by callback
+     */
+    public <T> T doInTransaction(String operation, boolean readOnly, TransactionCallback<T> cb) {
+        return doInTransaction(operation, readOnly, retryPolicy, cb);
+    }
+
+    /**
+     * Execute arbitrary code inside transaction, using own retry policy (to set retry budget for that callback)
+     * @return value returned by callback
+     */
+    public <T> T doInTransaction(String operation, boolean readOnly, RetryPolicy policy, TransactionCallback<T> cb) {
+        final RetryStatistics.Operation stats = statistics.get(operation);
+        final long start = System.currentTimeMillis();
+        long delay = 0;
+        for (int attempt = 1; ; attempt++) {
             try {
-                final DefaultTransactionDefinition d = new DefaultTransactionDefinition();
-                d.setReadOnly(readOnly);
-                tx = transactionManager.getTransaction(d);
-                final T result = cb.execute();
-                transactionManager.commit((TransactionStatus) tx);
+                final T result = executeOnce(readOnly, cb);
+                stats.finished(System.currentTimeMillis() - start, false);
                 return result;
             } catch (Throwable t) {
-                if (tx != null) {
-                    try {
-                        transactionManager.rollback((TransactionStatus) tx);
-                    } catch (Exception e) {
-                        logger.error("while rolling back tx", e);
-                    }
+                final RuntimeException exception = (t instanceof RuntimeException) ? (RuntimeException) t : new RuntimeException(t);
+                if (!isRetryNeeded(t)) {
+                    stats.finished(System.currentTimeMillis() - start, false);
+                    throw exception;
                 }
-                lastException = (t instanceof RuntimeException) ? (RuntimeException) t : new RuntimeException(t);
-                if (isRetryNeeded(t)) {
-                    delay(random, count);
-                } else {
-                    throw lastException;
+                stats.conflict(getConflictKey(t));
+                delay = policy.nextDelay(attempt, delay, System.currentTimeMillis() - start);
+                if (delay < 0 || !sleep(delay)) {
+                    stats.finished(System.currentTimeMillis() - start, true);
+                    throw exception;
                 }
+                stats.retried(delay);
             }
         }
-        throw lastException;
     }
 
-    protected void delay(Random random, int count) {
-        int interval = MIN_RETRY_WAIT + random.nextInt(count > 0 ? count * RETRY_WAIT_INCREMENT : MIN_RETRY_WAIT);
-        if (interval >= MAX_RETRY_WAIT) {
-            interval = MAX_RETRY_WAIT - random.nextInt(MIN_RETRY_WAIT);
+    /**
+     * Asynchronous version of {@link RetryingTransactionHelper#doInTransaction(boolean, TransactionCallback)}
+     * @return future, completed with value returned by callback
+     */
+    public <T> CompletableFuture<T> doInTransactionAsync(boolean readOnly, TransactionCallback<T> cb) {
+        return doInTransactionAsync(getOperationName(cb), readOnly, retryPolicy, cb);
+    }
+
+    public <T> CompletableFuture<T> doInTransactionAsync(String operation, boolean readOnly, TransactionCallback<T> cb) {
+        return doInTransactionAsync(operation, readOnly, retryPolicy, cb);
+    }
+
+    /**
+     * Execute callback inside transaction on the executor of this helper. Caller thread is not blocked, retries are not sleeping in executor threads, but scheduled by timer.
+     * Cancelling returned future prevents further retries
+     * @return future, completed with value returned by callback, or with the last exception
+     */
+    public <T> CompletableFuture<T> doInTransactionAsync(String operation, boolean readOnly, RetryPolicy policy, TransactionCallback<T> cb) {
+        final AsyncExecution<T> execution = new AsyncExecution<>(statistics.get(operation), readOnly, policy, cb);
+        try {
+            executor.execute(execution);
+        } catch (RejectedExecutionException e) {
+            execution.future.completeExceptionally(e);
+        }
+        return execution.future;
+    }
+
+    private <T> T executeOnce(boolean readOnly, TransactionCallback<T> cb) throws Exception {
+        TransactionStatus tx = null;
+        try {
+            final DefaultTransactionDefinition d = new DefaultTransactionDefinition();
+            d.setReadOnly(readOnly);
+            tx = transactionManager.getTransaction(d);
+            final T result = cb.execute();
+            transactionManager.commit(tx);
+            return result;
+        } catch (Throwable t) {
+            if (tx != null && !tx.isCompleted()) {
+                try {
+                    transactionManager.rollback(tx);
+                } catch (Exception e) {
+                    logger.error("while rolling back tx", e);
+                }
+            }
+            throw t;
         }
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    protected boolean sleep(long interval) {
         try {
             Thread.sleep(interval);
-        } catch (InterruptedException ignored) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
@@ -88,4 +181,123 @@ public class RetryingTransactionHelper {
         }
         return false;
     }
+
+    protected String getConflictKey(Throwable cause) {
+        String result = null;
+        while (cause != null) {
+            if (cause instanceof OptimisticConflictException) {
+                return ((OptimisticConflictException) cause).getSource();
+            } else if (result == null && cause instanceof TransientDataAccessException) {
+                result = cause.getClass().getSimpleName();
+            }
+            final Throwable next = cause.getCause();
+            cause = (cause == next) ? null : next;
+        }
+        return result;
+    }
+
+    private static String getOperationName(Object cb) {
+        final String name = cb.getClass().getName();
+        final int lambda = name.indexOf("$$Lambda");
+        return lambda != -1 ? name.substring(0, lambda) : name;
+    }
+
+    private class AsyncExecution<T> implements Runnable {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final RetryStatistics.Operation stats;
+        private final boolean readOnly;
+        private final RetryPolicy policy;
+        private final TransactionCallback<T> cb;
+        private final long start = System.currentTimeMillis();
+        private int attempt;
+        private long delay;
+
+        private AsyncExecution(RetryStatistics.Operation stats, boolean readOnly, RetryPolicy policy, TransactionCallback<T> cb) {
+            this.stats = stats;
+            this.readOnly = readOnly;
+            this.policy = policy;
+            this.cb = cb;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            attempt++;
+            try {
+                final T result = executeOnce(readOnly, cb);
+                stats.finished(System.currentTimeMillis() - start, false);
+                future.complete(result);
+            } catch (Throwable t) {
+                if (!isRetryNeeded(t)) {
+                    stats.finished(System.currentTimeMillis() - start, false);
+                    future.completeExceptionally(t);
+                    return;
+                }
+                stats.conflict(getConflictKey(t));
+                delay = policy.nextDelay(attempt, delay, System.currentTimeMillis() - start);
+                if (delay < 0 || future.isDone()) {
+                    stats.finished(System.currentTimeMillis() - start, true);
+                    future.completeExceptionally(t);
+                    return;
+                }
+                stats.retried(delay);
+                try {
+                    Timer.INSTANCE.schedule(this::resubmit, delay, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    future.completeExceptionally(t);
+                }
+            }
+        }
+
+        private void resubmit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return virtual thread per task executor on JDK 21+, otherwise fixed pool of daemon threads, twice as many as CPUs
+     */
+    public static Executor getDefaultExecutor() {
+        return DefaultExecutor.INSTANCE;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class DefaultExecutor {
+        private static final Executor INSTANCE = create();
+
+        private static Executor create() {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                final int threads = Runtime.getRuntime().availableProcessors() * 2;
+                final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreads("basalt-tx-"));
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            }
+        }
+    }
+
+    private static class Timer {
+        private static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonThreads("basalt-tx-retry-"));
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
 }
@@ -36,6 +36,23 @@ public interface SearchService {
      */
     @Nullable List<String> search(@NonNull QueryBuilder q, @Nullable Collection<String> primaryParents, int limit);
 
+    /**
+     * Search by expression built from {@link QueryBuilder}, one page at a time. Page is computed in SQL, so the whole result is never loaded.
+     * Note that DB still sorts the whole result on every call, so page of large result is not cheaper than count of it.
+     * Nodes are sorted by value of the property (nodes without it go first, minimal value is used for multi-valued property), then by GUID.
+     * Pages are not cached, every call goes to DB
+     * <p>Example - list readable children of the folder by name:
+     * <pre>
+     * search(new QueryBuilder().childOf(folder, "contains").readableBy(user, membership, MASK_READ), "name", null, 100)
+     * </pre></p>
+     * @param q expression
+     * @param sortProperty property name
+     * @param continuation {@link Page#next} of the previous page, null for the first page
+     * @param pageSize max number of nodes on page
+     * @return page of nodes GUIDs
+     */
+    @NonNull Page<String> search(@NonNull QueryBuilder q, @NonNull String sortProperty, @Nullable String continuation, int pageSize);
+
     /**
      * Count by expression. In some DBMS, <i>select count(distinct id)</i> could be ineffective
      * @param q expession
@@ -0,0 +1,117 @@
+package com.github.vantonov1.basalt.repo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transaction-bound state of repository components (L1 caches, changed keys, postponed tasks), kept in one object instead of separate string-keyed resources.
+ * The context is found by one resource lookup, state of every component - by identity of the component, so lookups do not allocate.
+ * <p>Participants are notified in registration order, context is unbound after all of them complete</p>
+ */
+public final class TransactionContext extends TransactionSynchronizationAdapter {
+    private static final Log logger = LogFactory.getLog(TransactionContext.class);
+
+    private final Map<Object, Object> states = new IdentityHashMap<>(8);
+    private final List<TransactionSynchronization> participants = new ArrayList<>(4);
+
+    private TransactionContext() {
+    }
+
+    /**
+     * @return context of the current transaction, or null if it was not created yet
+     */
+    public static TransactionContext current() {
+        return (TransactionContext) TransactionSynchronizationManager.getResource(TransactionContext.class);
+    }
+
+    /**
+     * @return context of the current transaction, created if needed, or null if transaction synchronization is not active
+     */
+    public static TransactionContext get() {
+        TransactionContext context = current();
+        if (context == null && TransactionSynchronizationManager.isSynchronizationActive()) {
+            context = new TransactionContext();
+            TransactionSynchronizationManager.bindResource(TransactionContext.class, context);
+            TransactionSynchronizationManager.registerSynchronization(context);
+        }
+        return context;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getState(Object owner) {
+        return (T) states.get(owner);
+    }
+
+    /**
+     * Set state of the owner. If owner is {@link TransactionSynchronization}, it is registered as participant
+     */
+    public <T> T putState(Object owner, T state) {
+        states.put(owner, state);
+        if (owner instanceof TransactionSynchronization && !participants.contains(owner)) {
+            participants.add((TransactionSynchronization) owner);
+        }
+        return state;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T removeState(Object owner) {
+        return (T) states.remove(owner);
+    }
+
+    @Override
+    public void suspend() {
+        participants.forEach(TransactionSynchronization::suspend);
+        TransactionSynchronizationManager.unbindResource(TransactionContext.class);
+    }
+
+    @Override
+    public void resume() {
+        TransactionSynchronizationManager.bindResource(TransactionContext.class, this);
+        participants.forEach(TransactionSynchronization::resume);
+    }
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+        for (int i = 0; i < participants.size(); i++) {
+            participants.get(i).beforeCommit(readOnly);
+        }
+    }
+
+    @Override
+    public void beforeCompletion() {
+        for (int i = 0; i < participants.size(); i++) {
+            participants.get(i).beforeCompletion();
+        }
+    }
+
+    @Override
+    public void afterCommit() {
+        for (int i = 0; i < participants.size(); i++) {
+            participants.get(i).afterCommit();
+        }
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        try {
+            for (int i = 0; i < participants.size(); i++) {
+                try {
+                    participants.get(i).afterCompletion(status);
+                } catch (RuntimeException e) {
+                    logger.error("afterCompletion of " + participants.get(i) + " failed", e);
+                }
+            }
+        } finally {
+            states.clear();
+            TransactionSynchronizationManager.unbindResourceIfPossible(TransactionContext.class);
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package com.github.vantonov1.basalt.repo.impl;
 
+import com.github.vantonov1.basalt.cache.CacheLoader;
+import com.github.vantonov1.basalt.cache.ScalableBloomFilter;
 import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
 import com.github.vantonov1.basalt.repo.Assoc;
 import com.github.vantonov1.basalt.repo.FullTextIndexer;
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.Page;
+import com.github.vantonov1.basalt.repo.PrimaryParentListener;
 import com.github.vantonov1.basalt.repo.QueryBuilder;
 import com.github.vantonov1.basalt.repo.SearchService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -22,25 +34,83 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Service
 @SuppressWarnings("unused")
-public class NodeServiceImpl implements NodeService, SearchService {
+public class NodeServiceImpl implements NodeService, SearchService, CacheLoader {
     private static final String PARENTS_CACHE = "parents";
     private static final String NODES_CACHE = "nodes";
     private static final String CHILDREN_CACHE = "children";
     private static final String ASSOC_CACHE = "assocByType";
+    private static final String MISSING_CACHE = "missing";
+    private static final int ID_FILTER_CAPACITY = 1 << 16;
+
+    private final Log logger = LogFactory.getLog(getClass());
 
     private final TransactionalCacheManager cacheManager;
     private final RepositoryDAO repositoryDAO;
+    private final QueryCache queryCache;
 
     private FullTextIndexer fullTextIndexer;
+    private List<PrimaryParentListener> primaryParentListeners = Collections.emptyList();
+
+    /**
+     * Keep Bloom filter of all node ids in memory, so most checks of absent ids do not reach the database.
+     * The filter is built in background after startup (and is not used until then) and updated on create, so it is valid only if nodes are not created by other instances sharing the database -
+     * it is disabled in cluster mode
+     */
+    @Value("${repo.ids.bloom.filter:false}")
+    private boolean useIdFilter;
+    private ScalableBloomFilter idFilter;
+    private volatile boolean idFilterReady;
+    private Thread idFilterBuilder;
 
     public NodeServiceImpl(TransactionalCacheManager cacheManager, RepositoryDAO repositoryDAO) {
         this.cacheManager = cacheManager;
         this.repositoryDAO = repositoryDAO;
+        this.queryCache = new QueryCache(cacheManager);
+    }
+
+    /**
+     * Filter is created before any node could be created by this instance, so it gets all of them, either from create or from the database
+     */
+    @PostConstruct
+    private void createIdFilter() {
+        if (useIdFilter) {
+            if (cacheManager.isClustered()) {
+                logger.warn("id filter is disabled in cluster mode");
+            } else {
+                idFilter = new ScalableBloomFilter(ID_FILTER_CAPACITY, 0.01);
+            }
+        }
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void buildIdFilter() {
+        if (idFilter != null && !idFilterReady && idFilterBuilder == null) {
+            idFilterBuilder = new Thread(() -> {
+                try {
+                    repositoryDAO.forEachId(idFilter::put);
+                    idFilterReady = true;
+                    logger.info("id filter is built, " + idFilter.getBits() / 8 + " bytes");
+                } catch (Exception e) {
+                    logger.error("while building id filter, it is disabled", e);
+                }
+            }, "basalt-id-filter");
+            idFilterBuilder.setDaemon(true);
+            idFilterBuilder.start();
+        }
+    }
+
+    /**
+     * Cache results of {@link #search(QueryBuilder, Collection, int)} and {@link #count(QueryBuilder)}, see {@link QueryCache}
+     */
+    @Value("${repo.query.cache:false}")
+    public void setQueryCache(boolean enabled) {
+        queryCache.setEnabled(enabled);
     }
 
     @Autowired(required = false)
@@ -48,6 +118,11 @@ public class NodeServiceImpl implements NodeService, SearchService {
         this.fullTextIndexer = fullTextIndexer;
     }
 
+    @Autowired(required = false)
+    public void setPrimaryParentListeners(@Lazy List<PrimaryParentListener> primaryParentListeners) {
+        this.primaryParentListeners = primaryParentListeners;
+    }
+
     @Override
     public String createNode(final String parentId, final Node node, final String assocType, String assocName) {
         checkParam(node, "nodes is null");
@@ -56,10 +131,15 @@ public class NodeServiceImpl implements NodeService, SearchService {
             throw new IllegalArgumentException("node id already exists: " + node.id);
         }
         final String id = repositoryDAO.createNode(node, parentId);
+        created(id);
+        if (parentId != null) {
+            primaryParentListeners.forEach(listener -> listener.created(parentId, Collections.singletonList(id)));
+        }
+        queryCache.created(node, parentId != null, assocType != null);
         if (parentId != null && assocType != null) {
             repositoryDAO.createAssoc(parentId, id, assocType, assocName);
             cacheManager.markAsCreated(CHILDREN_CACHE, parentId);
-            cacheManager.markAsCreated(ASSOC_CACHE, assocType);
+            assocsCreated(assocType, Collections.singletonList(new Assoc(assocType, assocName, parentId, id)));
         }
         if (fullTextIndexer != null) {
             fullTextIndexer.create(id, node);
@@ -77,10 +157,17 @@ public class NodeServiceImpl implements NodeService, SearchService {
             }
             final List<String> ids = repositoryDAO.createNodes(nodes, parentId);
             assert ids.size() == nodes.size();
+            ids.forEach(this::created);
+            nodes.forEach(node -> queryCache.created(node, parentId != null, parentId != null));
+            if (parentId != null) {
+                primaryParentListeners.forEach(listener -> listener.created(parentId, ids));
+            }
             if (parentId != null) {
                 repositoryDAO.createAssocs(parentId, ids, assocType);
                 cacheManager.markAsCreated(CHILDREN_CACHE, parentId);
-                cacheManager.markAsCreated(ASSOC_CACHE, assocType);
+                if (assocType != null) {
+                    assocsCreated(assocType, ids.stream().map(id -> new Assoc(assocType, null, parentId, id)).collect(Collectors.toList()));
+                }
             }
             if (fullTextIndexer != null) {
                 fullTextIndexer.create(ids, nodes);
@@ -95,11 +182,16 @@ public class NodeServiceImpl implements NodeService, SearchService {
     public Map<String, Collection<String>> createNodes(Map<String, Collection<Node>> nodesInParent, String assocType) {
         checkParam(nodesInParent, "nodes are null");
         final Map<String, Collection<String>> idsByParent = repositoryDAO.createNodes(nodesInParent);
+        final List<Assoc> created = new ArrayList<>();
         for (Map.Entry<String, Collection<String>> entry : idsByParent.entrySet()) {
             final String parentId = entry.getKey();
             final Collection<String> ids = entry.getValue();
+            ids.forEach(this::created);
+            nodesInParent.get(parentId).forEach(node -> queryCache.created(node, true, assocType != null));
+            primaryParentListeners.forEach(listener -> listener.created(parentId, ids));
             if (assocType != null) {
                 repositoryDAO.createAssocs(parentId, ids, assocType);
+                ids.forEach(id -> created.add(new Assoc(assocType, null, parentId, id)));
             }
             if (fullTextIndexer != null) {
                 fullTextIndexer.create(ids, nodesInParent.get(parentId));
@@ -107,7 +199,7 @@ public class NodeServiceImpl implements NodeService, SearchService {
             cacheManager.markAsCreated(CHILDREN_CACHE, parentId);
         }
         if (assocType != null) {
-            cacheManager.markAsCreated(ASSOC_CACHE, assocType);
+            assocsCreated(assocType, created);
         }
         return idsByParent;
     }
@@ -116,6 +208,10 @@ public class NodeServiceImpl implements NodeService, SearchService {
     public void updateProperties(Node updated, boolean deleteOld) {
         checkParam(updated, "node is null");
         if (updated.id != null) {
+            if (queryCache.isEnabled()) {
+                queryCache.changed(getProperties(updated.id));
+                queryCache.changed(updated);
+            }
             cacheManager.remove(NODES_CACHE, updated.id);
             repositoryDAO.updateNode(updated.id, updated, deleteOld);
             if (fullTextIndexer != null) {
@@ -129,7 +225,10 @@ public class NodeServiceImpl implements NodeService, SearchService {
         checkParam(nodes, "nodes are null");
         if (!nodes.isEmpty()) {
             final List<String> ids = nodes.stream().map((Node node) -> node != null ? node.id : null).collect(Collectors.toList());
-            repositoryDAO.updateProperties(nodes, getProperties(ids), deleteOld);
+            final List<Node> old = getProperties(ids);
+            old.forEach(queryCache::changed);
+            nodes.forEach(queryCache::changed);
+            repositoryDAO.updateProperties(nodes, old, deleteOld);
             ids.forEach(id -> cacheManager.remove(NODES_CACHE, id));
             if (fullTextIndexer != null) {
                 fullTextIndexer.update(nodes, deleteOld);
@@ -144,13 +243,14 @@ public class NodeServiceImpl implements NodeService, SearchService {
         final Serializable oldValue = getProperty(id, name);
         if (!Objects.equals(oldValue, value)) {
             final Node cached = cacheManager.get(NODES_CACHE, id);
-            final Date modified = cached != null ? cached.modified : null;
+            final Long txnVersion = cached != null ? cached.txnVersion : null;
             if (value == null) {
-                repositoryDAO.removeProperty(id, name, modified);
+                repositoryDAO.removeProperty(id, name, txnVersion);
             } else {
-                repositoryDAO.setProperty(id, name, modified, value, oldValue);
+                repositoryDAO.setProperty(id, name, txnVersion, value, oldValue);
             }
             cacheManager.remove(NODES_CACHE, id);
+            queryCache.propertyChanged(name);
             if (fullTextIndexer != null) {
                 fullTextIndexer.update(id, name, value instanceof String ? (String) value : null);
             }
@@ -172,6 +272,7 @@ public class NodeServiceImpl implements NodeService, SearchService {
             for (String id : ids) {
                 cacheManager.remove(NODES_CACHE, id);
             }
+            queryCache.propertyChanged(name);
             if (fullTextIndexer != null) {
                 for (String id : ids) {
                     fullTextIndexer.update(id, name, value instanceof String ? (String) value : null);
@@ -180,13 +281,61 @@ public class NodeServiceImpl implements NodeService, SearchService {
         }
     }
 
+    @Override
+    public long increment(String id, String name, long delta) {
+        checkParam(id, "node id is null");
+        checkParam(name, "property name is null");
+        Long result = repositoryDAO.increment(id, name, delta);
+        if (result == null) {
+            final Boolean inserted = repositoryDAO.insertPropertyIfAbsent(id, name, delta);
+            checkParam(inserted, "node not found: " + id);
+            result = inserted ? Long.valueOf(delta) : repositoryDAO.increment(id, name, delta);
+            if (result == null) {
+                throw new IllegalArgumentException(repositoryDAO.<Serializable>getProperty(id, name) instanceof Integer ? "int property overflow: " + name : "property is not integral: " + name);
+            }
+        }
+        cacheManager.remove(NODES_CACHE, id);
+        queryCache.propertyChanged(name);
+        return result;
+    }
+
+    @Override
+    public boolean compareAndSet(String id, String name, Serializable expected, Serializable value) {
+        checkParam(id, "node id is null");
+        checkParam(name, "property name is null");
+        if (expected instanceof Collection || value instanceof Collection) {
+            throw new IllegalArgumentException("collections are not supported");
+        }
+        final boolean changed;
+        if (expected == null && value == null) {
+            final Node node = getProperties(id);
+            checkParam(node, "node not found: " + id);
+            changed = node.get(name) == null;
+        } else if (expected == null) {
+            final Boolean inserted = repositoryDAO.insertPropertyIfAbsent(id, name, value);
+            checkParam(inserted, "node not found: " + id);
+            changed = inserted;
+        } else {
+            changed = repositoryDAO.compareAndSet(id, name, expected, value);
+        }
+        if (changed) {
+            cacheManager.remove(NODES_CACHE, id);
+            queryCache.propertyChanged(name);
+            if (fullTextIndexer != null) {
+                fullTextIndexer.update(id, name, value instanceof String ? (String) value : null);
+            }
+        }
+        return changed;
+    }
+
     @Override
     public void removeProperty(String id, String name) {
         checkParam(id, "node id is null");
         checkParam(name, "property name is null");
         final Node cached = cacheManager.get(NODES_CACHE, id);
-        repositoryDAO.removeProperty(id, name, cached != null ? cached.modified : null);
+        repositoryDAO.removeProperty(id, name, cached != null ? cached.txnVersion : null);
         cacheManager.remove(NODES_CACHE, id);
+        queryCache.propertyChanged(name);
         if (fullTextIndexer != null) {
             fullTextIndexer.update(id, name, null);
         }
@@ -196,7 +345,7 @@ public class NodeServiceImpl implements NodeService, SearchService {
     public <T extends Serializable> T getProperty(final String id, final String name) {
         if (id != null && name != null) {
             final Node cached = cacheManager.get(NODES_CACHE, id);
-            return cached != null ? cached.get(name) : repositoryDAO.getProperty(id, name);
+            return cached != null ? cached.get(name) : !isMissing(id) ? repositoryDAO.getProperty(id, name) : null;
         }
         return null;
     }
@@ -230,9 +379,15 @@ public class NodeServiceImpl implements NodeService, SearchService {
             final Node cached = cacheManager.get(NODES_CACHE, id);
             if (cached != null) {
                 return cached;
+            } else if (isMissing(id)) {
+                return null;
             } else {
                 final Node node = repositoryDAO.getNode(id);
-                cacheManager.putExisting(NODES_CACHE, id, node);
+                if (node != null) {
+                    cacheManager.putExisting(NODES_CACHE, id, node);
+                } else {
+                    cacheManager.putExisting(MISSING_CACHE, id, Boolean.TRUE);
+                }
                 return node;
             }
         }
@@ -249,10 +404,13 @@ public class NodeServiceImpl implements NodeService, SearchService {
             final Set<String> all = new HashSet<>(ids);
             final List<Node> cached = new ArrayList<>(all.size());
             for (Iterator<String> iterator = all.iterator(); iterator.hasNext(); ) {
-                final Node node = cacheManager.get(NODES_CACHE, iterator.next());
+                final String id = iterator.next();
+                final Node node = cacheManager.get(NODES_CACHE, id);
                 if (node != null) {
                     cached.add(node);
                     iterator.remove();
+                } else if (isMissing(id)) {
+                    iterator.remove();
                 }
             }
             if (all.isEmpty()) {
@@ -261,6 +419,10 @@ public class NodeServiceImpl implements NodeService, SearchService {
                 final List<Node> uncached = repositoryDAO.getNodes(all);
                 for (Node node : uncached) {
                     cacheManager.putExisting(NODES_CACHE, node.id, node);
+                    all.remove(node.id);
+                }
+                for (String id : all) {
+                    cacheManager.putExisting(MISSING_CACHE, id, Boolean.TRUE);
                 }
                 return Stream.concat(cached.stream(), uncached.stream()).collect(Collectors.toList());
             }
@@ -276,7 +438,7 @@ public class NodeServiceImpl implements NodeService, SearchService {
     public String getPrimaryParent(String id) {
         if (id != null) {
             final Node cached = cacheManager.get(NODES_CACHE, id);
-            return cached != null ? cached.parent : repositoryDAO.getPrimaryParent(id);
+            return cached != null ? cached.parent : !isMissing(id) ? repositoryDAO.getPrimaryParent(id) : null;
         }
         return null;
     }
@@ -386,7 +548,8 @@ public class NodeServiceImpl implements NodeService, SearchService {
             repositoryDAO.createAssoc(parentId, childId, assocType, assocName);
             cacheManager.markAsCreated(CHILDREN_CACHE, parentId);
             cacheManager.markAsCreated(PARENTS_CACHE, childId);
-            cacheManager.markAsCreated(ASSOC_CACHE, assocType);
+            assocsCreated(assocType, Collections.singletonList(new Assoc(assocType, assocName, parentId, childId)));
+            queryCache.assocsChanged();
         }
     }
 
@@ -394,21 +557,25 @@ public class NodeServiceImpl implements NodeService, SearchService {
     public void deleteNode(String id) {
         checkParam(id, "node id is null");
         deleteNode(id, repositoryDAO.getPrimaryParent(id));
-        cacheManager.clear(ASSOC_CACHE);
     }
 
     @Override
     public void deleteChild(String parentId, String childId, String assocType, String assocName) {
         checkParam(parentId, "parent node id is null");
         checkParam(childId, "child node id is null");
+        final Collection<String> types = assocType != null
+                ? Collections.singleton(assocType)
+                : getParentAssoc(childId).stream().filter(a -> parentId.equals(a.source)).map(a -> a.type).collect(Collectors.toSet());
         repositoryDAO.deleteAssoc(parentId, childId, assocType, assocName);
         final String primaryParent = repositoryDAO.getPrimaryParent(childId);
         if (Objects.equals(parentId, primaryParent) && 0 == repositoryDAO.countAllChildAssoc(parentId, childId, null)) {
             deleteNode(childId, primaryParent);
         }
         cacheManager.remove(PARENTS_CACHE, childId);
-        cacheManager.remove(ASSOC_CACHE, assocType);
         cacheManager.remove(CHILDREN_CACHE, parentId);
+        types.forEach(type -> assocsDeleted(type, a -> a.source.equals(parentId) && a.target.equals(childId)
+                && (assocType == null || assocType.equals(a.type)) && (assocName == null || assocName.equals(a.name))));
+        queryCache.assocsChanged();
     }
 
     @Override
@@ -416,20 +583,33 @@ public class NodeServiceImpl implements NodeService, SearchService {
         checkParam(id, "node id is null");
         final String from = getPrimaryParent(id);
         repositoryDAO.setPrimaryParent(id, to);
+        primaryParentListeners.forEach(listener -> listener.moved(id, from, to));
         if (assocType != null) {
             repositoryDAO.createAssoc(to, id, assocType, assocName);
             repositoryDAO.deleteAssoc(from, id, assocType, assocName);
+            assocsDeleted(assocType, a -> a.source.equals(from) && a.target.equals(id) && (assocName == null || assocName.equals(a.name)));
+            assocsCreated(assocType, Collections.singletonList(new Assoc(assocType, assocName, to, id)));
         }
         cacheManager.remove(NODES_CACHE, id);
         cacheManager.remove(CHILDREN_CACHE, from);
         cacheManager.remove(CHILDREN_CACHE, to);
         cacheManager.remove(PARENTS_CACHE, id);
-        cacheManager.remove(ASSOC_CACHE, assocType);
+        queryCache.parentsChanged();
     }
 
     @Override
     public boolean exists(String id) {
-        return GUID.is(id) && (cacheManager.contains(NODES_CACHE, id) || repositoryDAO.exists(id));
+        if (!GUID.is(id) || isMissing(id)) {
+            return false;
+        }
+        if (cacheManager.contains(NODES_CACHE, id)) {
+            return true;
+        }
+        final boolean exists = repositoryDAO.exists(id);
+        if (!exists) {
+            cacheManager.putExisting(MISSING_CACHE, id, Boolean.TRUE);
+        }
+        return exists;
     }
 
     @Override
@@ -445,22 +625,103 @@ public class NodeServiceImpl implements NodeService, SearchService {
     @Override
     public List<String> search(QueryBuilder q, Collection<String> primaryParents, int limit) {
         checkParam(q, "query builder is null");
-        return repositoryDAO.queryByParents(q.build(), primaryParents, limit);
+        final String sql = q.build();
+        final List<String> result = queryCache.get("search:" + limit + ":" + primaryParents + ":" + sql, q, primaryParents != null,
+                () -> repositoryDAO.queryByParents(sql, primaryParents, limit));
+        return queryCache.isEnabled() ? new ArrayList<>(result) : result;
+    }
+
+    @Override
+    public Page<String> search(QueryBuilder q, String sortProperty, String continuation, int pageSize) {
+        checkParam(q, "query builder is null");
+        checkParam(sortProperty, "sort property is null");
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size should be positive");
+        }
+        return repositoryDAO.queryPage(q.build(), q.hasWhere(), sortProperty, continuation, pageSize);
     }
 
     @Override
     public int count(QueryBuilder q) {
         checkParam(q, "query builder is null");
-        return repositoryDAO.queryCount(q.build());
+        final String sql = q.build();
+        return queryCache.get("count:" + sql, q, false, () -> repositoryDAO.queryCount(sql));
     }
 
     private boolean exists(Collection<String> ids) {
+        final List<String> unknown = new ArrayList<>(ids.size());
         for (String id : ids) {
             if(GUID.is(id) && (cacheManager.contains(NODES_CACHE, id))) {
                 return true;
             }
+            if (!isMissing(id)) {
+                unknown.add(id);
+            }
+        }
+        return repositoryDAO.exists(unknown);
+    }
+
+    /**
+     * @return true if node is known to be absent - by negative cache or id filter
+     */
+    private boolean isMissing(String id) {
+        if (cacheManager.get(MISSING_CACHE, id) != null) {
+            return true;
         }
-        return repositoryDAO.exists(ids);
+        return idFilterReady && !idFilter.mightContain(id);
+    }
+
+    private void created(String id) {
+        cacheManager.markAsCreated(MISSING_CACHE, id);
+        if (idFilter != null) {
+            idFilter.put(id);
+        }
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Arrays.asList(NODES_CACHE, CHILDREN_CACHE);
+    }
+
+    @Override
+    public void load(String cacheName, Collection<String> keys) {
+        if (NODES_CACHE.equals(cacheName)) {
+            getProperties(keys);
+        } else if (CHILDREN_CACHE.equals(cacheName)) {
+            loadAllAssoc(keys.stream().filter(id -> cacheManager.get(CHILDREN_CACHE, id) == null || cacheManager.get(PARENTS_CACHE, id) == null).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Load associations of the nodes by bulk query and put them to children and parents caches
+     * @return all associations of the nodes
+     */
+    private List<Assoc> loadAllAssoc(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final Map<String, List<Assoc>> children = new HashMap<>();
+        final Map<String, List<Assoc>> parents = new HashMap<>();
+        for (String id : ids) {
+            children.put(id, new ArrayList<>());
+            parents.put(id, new ArrayList<>());
+        }
+        final List<Assoc> all = repositoryDAO.getAllAssoc(ids);
+        for (Assoc assoc : all) {
+            final List<Assoc> c = children.get(assoc.source);
+            if (c != null) {
+                c.add(assoc);
+            }
+            final List<Assoc> p = parents.get(assoc.target);
+            if (p != null) {
+                p.add(assoc);
+            }
+        }
+        for (String id : ids) {
+            cacheManager.putExisting(CHILDREN_CACHE, id, children.get(id));
+            cacheManager.putExisting(PARENTS_CACHE, id, parents.get(id));
+        }
+        return all;
     }
 
     private static void checkParam(Object id, String msg) {
@@ -476,7 +737,12 @@ public class NodeServiceImpl implements NodeService, SearchService {
      }
 
     private void deleteNode(String id, String parentId) {
-        deleteChildren(id);
+        queryCache.changed(QueryCache.ALL);
+        final Map<String, List<String>> subtree = new HashMap<>();
+        collectSubtree(id, subtree);
+        final Set<String> types = getAssocTypes(subtree.keySet());
+        deleteChildren(id, subtree);
+        types.forEach(type -> assocsDeleted(type, a -> subtree.containsKey(a.source) || subtree.containsKey(a.target)));
         cacheManager.remove(NODES_CACHE, id);
         cacheManager.remove(CHILDREN_CACHE, id);
         cacheManager.remove(PARENTS_CACHE, id);
@@ -487,14 +753,45 @@ public class NodeServiceImpl implements NodeService, SearchService {
         }
     }
 
-    private void deleteChildren(String id) {
+    /**
+     * @param subtree collects primary children of the node and of all its descendants
+     */
+    private void collectSubtree(String id, Map<String, List<String>> subtree) {
         final List<String> children = repositoryDAO.getByPrimaryParent(id);
+        subtree.put(id, children);
+        if (children != null) {
+            children.forEach(child -> collectSubtree(child, subtree));
+        }
+    }
+
+    /**
+     * @return types of all associations of the nodes - cached ones are taken from children and parents caches, the rest are read by bulk query
+     */
+    private Set<String> getAssocTypes(Collection<String> ids) {
+        final Set<String> types = new HashSet<>();
+        final List<String> uncached = new ArrayList<>();
+        for (String id : ids) {
+            final List<Assoc> children = cacheManager.get(CHILDREN_CACHE, id);
+            final List<Assoc> parents = cacheManager.get(PARENTS_CACHE, id);
+            if (children != null && parents != null) {
+                children.forEach(a -> types.add(a.type));
+                parents.forEach(a -> types.add(a.type));
+            } else {
+                uncached.add(id);
+            }
+        }
+        repositoryDAO.getAllAssoc(uncached).forEach(a -> types.add(a.type));
+        return types;
+    }
+
+    private void deleteChildren(String id, Map<String, List<String>> subtree) {
+        final List<String> children = subtree.get(id);
         if (children != null) {
             for (String child : children) {
+                deleteChildren(child, subtree);
                 cacheManager.remove(NODES_CACHE, child);
                 cacheManager.remove(CHILDREN_CACHE, child);
                 cacheManager.remove(PARENTS_CACHE, child);
-                deleteChildren(child);
                 if (fullTextIndexer != null) {
                     fullTextIndexer.remove(child);
                 }
@@ -505,6 +802,28 @@ public class NodeServiceImpl implements NodeService, SearchService {
         repositoryDAO.deleteAllAssoc(id);
     }
 
+    /**
+     * Add created associations to cached list of their type, without reloading it
+     */
+    private void assocsCreated(String type, Collection<Assoc> created) {
+        if (!created.isEmpty()) {
+            cacheManager.<List<Assoc>>update(ASSOC_CACHE, type, assocs -> {
+                final Set<Assoc> existing = new HashSet<>(assocs);
+                final List<Assoc> result = new ArrayList<>(assocs.size() + created.size());
+                result.addAll(assocs);
+                created.stream().filter(existing::add).forEach(result::add);
+                return result;
+            });
+        }
+    }
+
+    /**
+     * Remove deleted associations from cached list of their type, without reloading it
+     */
+    private void assocsDeleted(String type, Predicate<Assoc> deleted) {
+        cacheManager.<List<Assoc>>update(ASSOC_CACHE, type, assocs -> assocs.stream().filter(deleted.negate()).collect(Collectors.toList()));
+    }
+
     private static List<Assoc> filterParents(final String id, List<Assoc> all) {
         return all.stream().filter(a -> a != null && Objects.equals(a.target, id)).collect(Collectors.toList());
     }
@@ -0,0 +1,156 @@
+package com.github.vantonov1.basalt.repo.impl;
+
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
+import com.github.vantonov1.basalt.cache.Weighted;
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Results of {@link QueryBuilder} queries, cached by {@link NodeServiceImpl} when repo.query.cache is set.
+ * <p>Every query depends on tags - types and property names it uses, associations and parents. Every tag has a generation in transactional cache, mutations remove changed tags,
+ * so after commit they get new generation. Cached result is valid only while generations of all its tags are the same as when query was run.
+ * Tags changed in the current transaction are not visible to others, and get new generation for this transaction, so it always sees its own writes</p>
+ * <p>Queries with permission filter are not cached - ACL changes are not tracked</p>
+ */
+class QueryCache {
+    static final String ALL = "*";
+    private static final String QUERIES_CACHE = "queries";
+    private static final String TAGS_CACHE = "queryTags";
+    private static final String ANY_TYPE = "class:*";
+    private static final String ASSOCS = "assocs";
+    private static final String PARENTS = "parents";
+
+    private final TransactionalCacheManager cacheManager;
+    private final AtomicLong generations = new AtomicLong();
+    private volatile boolean enabled;
+
+    QueryCache(TransactionalCacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T get(String key, QueryBuilder q, boolean byParents, Supplier<T> query) {
+        if (!enabled || q.dependsOnAcls()) {
+            return query.get();
+        }
+        final long[] snapshot = snapshot(getTags(q, byParents));
+        final Entry cached = cacheManager.get(QUERIES_CACHE, key);
+        if (cached != null && Arrays.equals(cached.generations, snapshot)) {
+            return (T) cached.result;
+        }
+        final T result = query.get();
+        cacheManager.putExisting(QUERIES_CACHE, key, new Entry(result, snapshot));
+        return result;
+    }
+
+    void created(Node node, boolean hasParent, boolean hasAssoc) {
+        changed(node);
+        if (hasParent) {
+            changed(PARENTS);
+        }
+        if (hasAssoc) {
+            changed(ASSOCS);
+        }
+    }
+
+    void changed(Node node) {
+        if (enabled && node != null) {
+            changed(ANY_TYPE);
+            if (node.type != null) {
+                changed(type(node.type));
+            }
+            if (node.hasProperties()) {
+                node.getProperties().keySet().forEach(name -> changed(property(name)));
+            }
+        }
+    }
+
+    void propertyChanged(String name) {
+        changed(property(name));
+    }
+
+    void assocsChanged() {
+        changed(ASSOCS);
+    }
+
+    void parentsChanged() {
+        changed(PARENTS);
+        changed(ASSOCS);
+    }
+
+    void changed(String tag) {
+        if (enabled) {
+            cacheManager.remove(TAGS_CACHE, tag);
+        }
+    }
+
+    private long[] snapshot(Set<String> tags) {
+        final long[] result = new long[tags.size()];
+        int i = 0;
+        for (String tag : tags) {
+            Long generation = cacheManager.get(TAGS_CACHE, tag);
+            if (generation == null) {
+                generation = generations.incrementAndGet();
+                cacheManager.putExisting(TAGS_CACHE, tag, generation);
+            }
+            result[i++] = generation;
+        }
+        return result;
+    }
+
+    private static Set<String> getTags(QueryBuilder q, boolean byParents) {
+        final Set<String> result = new TreeSet<>();
+        result.add(ALL);
+        if (q.getTypes().isEmpty()) {
+            result.add(ANY_TYPE);
+        } else {
+            q.getTypes().forEach(type -> result.add(type(type)));
+        }
+        q.getPropertyNames().forEach(name -> result.add(property(name)));
+        if (q.dependsOnAssocs()) {
+            result.add(ASSOCS);
+        }
+        if (byParents || q.dependsOnParents()) {
+            result.add(PARENTS);
+        }
+        return result;
+    }
+
+    private static String type(String type) {
+        return "class:" + type;
+    }
+
+    private static String property(String name) {
+        return "prop:" + name;
+    }
+
+    private static class Entry implements Weighted {
+        private final Object result;
+        private final long[] generations;
+
+        private Entry(Object result, long[] generations) {
+            this.result = result;
+            this.generations = generations;
+        }
+
+        @Override
+        public int getWeight() {
+            return 1 + (result instanceof Collection ? ((Collection) result).size() : 0);
+        }
+    }
+}
@@ -4,30 +4,61 @@ import com.github.vantonov1.basalt.repo.AbstractJdbcDAO;
 import com.github.vantonov1.basalt.repo.Assoc;
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.Pair;
-import org.springframework.dao.OptimisticLockingFailureException;
+import com.github.vantonov1.basalt.repo.OptimisticConflictException;
+import com.github.vantonov1.basalt.repo.Page;
+import com.github.vantonov1.basalt.repo.TransactionContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+/**
+ * Nodes, properties and associations storage
+ * <p>If write-behind is enabled (repo.write.behind=true), changes of single nodes (creation, properties update) are not written immediately, but collected in transaction and written as merged batches
+ * before commit or before any other statement, with one update of modification time and transaction version per touched node</p>
+ */
 @Component
 public class RepositoryDAO extends AbstractJdbcDAO {
+    private static final int TYPE_INT = TypeConverter.getType(0);
+    private static final int TYPE_LONG = TypeConverter.getType(0L);
+
+    @Value("${repo.write.behind:false}")
+    private boolean writeBehind;
+
     private final ResultSetExtractor<String> GET_PARENT_ID = rs -> rs.next() ? rs.getString("parent_id") : null;
     private final ResultSetExtractor<Date> GET_MODIFIED = rs -> rs.next() ? new Date(rs.getLong("modified")) : null;
     private final ResultSetExtractor<Integer> GET_COUNT = rs -> rs.next() ? rs.getInt(1) : 0;
+    private final ResultSetExtractor<Long> GET_NUMERIC = rs -> rs.next() ? rs.getLong("value_n") : null;
+
+    private static final ResultSetExtractor<List<PageKey>> GET_PAGE_KEYS = rs -> {
+        final List<PageKey> result = new ArrayList<>();
+        while (rs.next()) {
+            result.add(new PageKey(rs.getLong("sort_n"), rs.getString("sort_s"), rs.getString("id")));
+        }
+        return result;
+    };
 
     private final ResultSetExtractor<List<String>> GET_IDS = rs -> {
         final List<String> result = new ArrayList<>();
@@ -107,6 +138,7 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         String id = null;
         String parent_id = null;
         Long modified = null;
+        Long txnVersion = null;
         String version = null;
         int index = 0;
         setFetchSize(rs, index);
@@ -115,6 +147,7 @@ public class RepositoryDAO extends AbstractJdbcDAO {
             id = rs.getString("id");
             parent_id = rs.getString("parent_id");
             modified = rs.getLong("modified");
+            txnVersion = rs.getLong("txn_version");
             version = rs.getString("version");
             assert !id.equals(parent_id);
             final int type = rs.getShort("type");
@@ -128,6 +161,7 @@ public class RepositoryDAO extends AbstractJdbcDAO {
             result.id = id;
             result.parent = parent_id;
             result.modified = new Date(modified);
+            result.txnVersion = txnVersion;
             result.version = "T".equals(version);
             return result;
         } else {
@@ -195,9 +229,23 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         super(dataSource);
     }
 
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
     public String createNode(Node node, String parentId) {
         final String id = node.id != null ? node.id : GUID.generate();
-        update("insert into bst_node (id, modified, parent_id, class, version) values (?, ?, ?, ?, ?)", id, System.currentTimeMillis(), parentId, node.type, Boolean.TRUE.equals(node.version) ? "T" : null);
+        if (isWriteBehind()) {
+            final Node created = UnitOfWork.copy(node);
+            created.id = id;
+            created.parent = parentId;
+            created.modified = new Date();
+            created.txnVersion = 0L;
+            created.version = Boolean.TRUE.equals(node.version);
+            getUnitOfWork(true).created(created);
+            return id;
+        }
+        update("insert into bst_node (id, modified, txn_version, parent_id, class, version) values (?, ?, 0, ?, ?, ?)", id, System.currentTimeMillis(), parentId, node.type, Boolean.TRUE.equals(node.version) ? "T" : null);
         insertProperties(id, node);
 
         return id;
@@ -238,6 +286,9 @@ public class RepositoryDAO extends AbstractJdbcDAO {
     }
 
     public boolean exists(String id) {
+        if (getPending(id) != null) {
+            return true;
+        }
         return id != null && query("select count(id) from bst_node where id=?", GET_COUNT, id) > 0;
     }
 
@@ -245,7 +296,26 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         return !ids.isEmpty() && new Query("select count(id) from bst_node").where("id", ids).run(GET_COUNT) > 0;
     }
 
+    /**
+     * Stream ids of all nodes, used to build {@link com.github.vantonov1.basalt.cache.ScalableBloomFilter id filter}
+     */
+    public void forEachId(Consumer<String> consumer) {
+        query("select id from bst_node", rs -> {
+            int index = 0;
+            setFetchSize(rs, index);
+            while (rs.next()) {
+                consumer.accept(rs.getString("id"));
+                setFetchSize(rs, index++);
+            }
+            return null;
+        });
+    }
+
     public Node getNode(String id) {
+        final UnitOfWork.Pending pending = getPending(id);
+        if (pending != null) {
+            return UnitOfWork.copy(pending.current);
+        }
         return query("select * from bst_node n left join bst_props p on p.node_id = n.id where n.id=?", GET_NODE, id);
     }
 
@@ -254,6 +324,28 @@ public class RepositoryDAO extends AbstractJdbcDAO {
     }
 
     public void updateNode(String id, Node node, boolean deleteOld) {
+        if (isWriteBehind()) {
+            final Node current = getPending(id, node.txnVersion).current;
+            if (Boolean.TRUE.equals(current.version)) {
+                throw new IllegalArgumentException("version node could not be updated: " + id);
+            }
+            if (node.type != null) {
+                current.type = node.type;
+            }
+            if (deleteOld) {
+                current.getProperties().clear();
+            }
+            if (node.hasProperties()) {
+                for (Map.Entry<String, Serializable> entry : node.getProperties().entrySet()) {
+                    if (entry.getValue() != null) {
+                        current.put(entry.getKey(), entry.getValue());
+                    } else {
+                        current.remove(entry.getKey());
+                    }
+                }
+            }
+            return;
+        }
         final Node old = getNode(id);
         if (old == null) {
             throw new IllegalArgumentException("node not found: " + id);
@@ -261,6 +353,9 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         if (Boolean.TRUE.equals(old.version)) {
             throw new IllegalArgumentException("version node could not be updated: " + id);
         }
+        if (node.txnVersion != null && !node.txnVersion.equals(old.txnVersion)) {
+            throw new OptimisticConflictException("already modified", "bst_node");
+        }
         if (node.type != null && !node.type.equals(old.type)) {
             update("update bst_node set class = ? where id = ?", (node.type), id);
         }
@@ -279,10 +374,10 @@ public class RepositoryDAO extends AbstractJdbcDAO {
             deleteProperties(deleteBatch);
             updateProperties(updateBatch);
             insertProperties(insertBatch);
-            setModified(id, old.modified, updateBatch, insertBatch, deleteBatch, deleteValuesBatch);
+            setModified(id, old.txnVersion, updateBatch, insertBatch, deleteBatch, deleteValuesBatch);
         } else {
             insertProperties(id, node);
-            setModified(id, old.modified);
+            setModified(id, old.txnVersion);
         }
     }
 
@@ -358,6 +453,10 @@ public class RepositoryDAO extends AbstractJdbcDAO {
     }
 
     public <T> T getProperty(String id, String name) {
+        final UnitOfWork.Pending pending = "__modified".equals(name) ? null : getPending(id);
+        if (pending != null) {
+            return (T) pending.current.get(name);
+        }
         return "__modified".equals(name)
                 ? (T) query("select modified from bst_node where id = ?", GET_MODIFIED, id)
                 : (T) new Query("select type, value_s, value_n from bst_props p").where("node_id", id).and("name", (name)).run(GET_PROP);
@@ -367,7 +466,11 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         return new Query("select * from bst_props p").where("node_id", ids).and("name", (name)).run(GET_PROP_BY_IDS);
     }
 
-    public void setProperty(String id, String name, Date modified, Object value, Object oldValue) {
+    public void setProperty(String id, String name, Long txnVersion, Object value, Object oldValue) {
+        if (isWriteBehind()) {
+            getPending(id, txnVersion).current.put(name, value instanceof Collection ? new ArrayList<>((Collection<?>) value) : (Serializable) value);
+            return;
+        }
         if (value instanceof Collection || oldValue instanceof Collection) {
             final List<Object[]> insertBatch = new ArrayList<>();
             final List<Object[]> updateBatch = new ArrayList<>();
@@ -376,14 +479,14 @@ public class RepositoryDAO extends AbstractJdbcDAO {
             deleteValues(deleteValuesBatch);
             updateProperties(updateBatch);
             insertProperties(insertBatch);
-            setModified(id, modified, updateBatch, insertBatch, deleteValuesBatch);
+            setModified(id, txnVersion, updateBatch, insertBatch, deleteValuesBatch);
         } else {
             if (oldValue != null) {
                 updateProperty(id, name, value);
             } else {
                 insertProperty(id, name, value);
             }
-            setModified(id, modified);
+            setModified(id, txnVersion);
         }
     }
 
@@ -414,9 +517,62 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         setModified(ids, updateBatch, insertBatch, deleteValuesBatch);
     }
 
-    public void removeProperty(String id, String name, Date modified) {
+    /**
+     * Int property is not changed, if result does not fit into int
+     * @return new value, or null if there is no integral property, or int property would overflow
+     */
+    public Long increment(String id, String name, long delta) {
+        final int affected = update("update bst_props set value_n = value_n + ? where node_id = ? and name = ? and (type = ? or type = ? and value_n + ? between ? and ?)",
+                delta, id, name, TYPE_LONG, TYPE_INT, delta, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return affected > 0 ? query("select value_n from bst_props where node_id = ? and name = ?", GET_NUMERIC, id, name) : null;
+    }
+
+    /**
+     * Insert property, if node does not have it. Node row is locked first (its version is not changed), so concurrent inserts are serialized, and the second one sees the first
+     * @return null if node not found, otherwise true if property was inserted
+     */
+    public Boolean insertPropertyIfAbsent(String id, String name, Object value) {
+        if (update("update bst_node set txn_version = txn_version where id = ?", id) == 0) {
+            return null;
+        }
+        if (query("select count(*) from bst_props where node_id = ? and name = ?", GET_COUNT, id, name) > 0) {
+            return false;
+        }
+        final int type = TypeConverter.getType(value);
+        final String v = TypeConverter.getString(value);
+        if (v != null) {
+            update("insert into bst_props (node_id, name, type, value_s) values (?, ?, ?, ?)", id, name, type, v);
+        } else {
+            update("insert into bst_props (node_id, name, type, value_n) values (?, ?, ?, ?)", id, name, type, TypeConverter.getNumeric(value));
+        }
+        return true;
+    }
+
+    public boolean compareAndSet(String id, String name, Object expected, Object value) {
+        final String s = TypeConverter.getString(expected);
+        final Object e = s != null ? s : TypeConverter.getNumeric(expected);
+        final String where = " where node_id = ? and name = ? and type > 0 and " + (s != null ? "value_s = ?" : "value_n = ?");
+        if (value == null) {
+            return update("delete from bst_props" + where, id, name, e) > 0;
+        }
+        final int type = TypeConverter.getType(value);
+        final String v = TypeConverter.getString(value);
+        if (v != null) {
+            return update("update bst_props set type = ?, value_s = ?, value_n = null" + where, type, v, id, name, e) > 0;
+        } else {
+            final Long n = TypeConverter.getNumeric(value);
+            assert n != null;
+            return update("update bst_props set type = ?, value_n = ?, value_s = null" + where, type, n, id, name, e) > 0;
+        }
+    }
+
+    public void removeProperty(String id, String name, Long txnVersion) {
+        if (isWriteBehind()) {
+            getPending(id, txnVersion).current.remove(name);
+            return;
+        }
         update("delete from bst_props where node_id = ? and name = ?", id, (name));
-        setModified(id, modified);
+        setModified(id, txnVersion);
     }
 
     public void removeProperty(Collection<String> ids, String name) {
@@ -453,6 +609,20 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         return new Query("select * from bst_assoc a").where(new String[]{"a.source", "a.target"}, id).run(GET_ASSOCS);
     }
 
+    /**
+     * Bulk version of {@link #getAllAssoc(String)}, nodes are queried in chunks. Association between two of the nodes is returned once
+     */
+    public List<Assoc> getAllAssoc(Collection<String> ids) {
+        final List<Assoc> result = queryBulk("select * from bst_assoc", "source", ids, -1, GET_ASSOCS);
+        final Set<String> sources = new HashSet<>(ids);
+        for (Assoc assoc : queryBulk("select * from bst_assoc", "target", ids, -1, GET_ASSOCS)) {
+            if (!sources.contains(assoc.source)) {
+                result.add(assoc);
+            }
+        }
+        return result;
+    }
+
     public List<Assoc> getAllAssocByType(String type) {
         return new Query("select * from bst_assoc").where("type", type).run(GET_ASSOCS);
     }
@@ -516,6 +686,34 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         return new Query("select distinct n.id from bst_node n " + sql).noVersions().setMaxRows(maxRows).run("n.parent_id", ids, GET_IDS);
     }
 
+    /**
+     * Keyset pagination: sort key is (numeric value, string value, id), so rows after the continuation token are found by comparison with the key instead of offset,
+     * and nodes before it are never sent to the client. Sort key is aggregated over (possibly multi-valued) property, so it is not backed by index -
+     * DB still groups and sorts the whole filtered result on every page, and cost of the page grows with the result, not with the page size.
+     * Missing values are replaced by the lowest ones to avoid DBMS-specific ordering of nulls. One row more than page size is read to know, if there is the next page
+     * @param hasWhere true if sql already has where clause
+     */
+    public Page<String> queryPage(String sql, boolean hasWhere, String sortProperty, String continuation, int pageSize) {
+        final List<Object> args = new ArrayList<>();
+        args.add(sortProperty);
+        final String sortN = "coalesce(min(s.value_n), " + Long.MIN_VALUE + ")";
+        final String sortS = "coalesce(min(s.value_s), '')";
+        final StringBuilder query = new StringBuilder("select n.id, ").append(sortN).append(" sort_n, ").append(sortS)
+                .append(" sort_s from bst_node n left join bst_props s on s.node_id = n.id and s.name = ? ")
+                .append(sql).append(hasWhere ? " and " : " where ").append("n.version is null group by n.id");
+        if (continuation != null) {
+            final PageKey after = PageKey.decode(continuation);
+            query.append(" having ").append(sortN).append(" > ? or ").append(sortN).append(" = ? and (")
+                    .append(sortS).append(" > ? or ").append(sortS).append(" = ? and n.id > ?)");
+            Collections.addAll(args, after.sortN, after.sortN, after.sortS, after.sortS, after.id);
+        }
+        query.append(" order by sort_n, sort_s, n.id");
+        final List<PageKey> keys = query(query.toString(), pageSize + 1, GET_PAGE_KEYS, args.toArray());
+        final boolean hasNext = keys.size() > pageSize;
+        final List<PageKey> page = hasNext ? keys.subList(0, pageSize) : keys;
+        return new Page<>(page.stream().map(key -> key.id).collect(Collectors.toList()), hasNext ? page.get(pageSize - 1).encode() : null);
+    }
+
     public int queryCount(String sql) {
         return new Query("select count(distinct n.id) from bst_node n " + sql).noVersions().run(GET_COUNT);
     }
@@ -546,6 +744,7 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         final Serializable value = getValue(rs);
         final String name = rs.getString("name");
         final long modified = rs.getLong("modified");
+        final long txnVersion = rs.getLong("txn_version");
         final String version = rs.getString("version");
         Node node = result.get(id);
         if (node == null) {
@@ -553,6 +752,7 @@ public class RepositoryDAO extends AbstractJdbcDAO {
             node.type = rs.getString("class");
             node.parent = parent_id;
             node.modified = new Date(modified);
+            node.txnVersion = txnVersion;
             node.version = "T".equals(version);
             node.id = id;
             result.put(id, node);
@@ -681,7 +881,7 @@ public class RepositoryDAO extends AbstractJdbcDAO {
     }
 
     private void insertNodes(List<Object[]> batch) {
-        batchUpdate("insert into bst_node (id, modified, parent_id, class) values (?, ?, ?, ?)", batch, 0);
+        batchUpdate("insert into bst_node (id, modified, txn_version, parent_id, class) values (?, ?, 0, ?, ?)", batch, 0);
     }
 
     private void insertProperties(String id, Node node) {
@@ -714,26 +914,148 @@ public class RepositoryDAO extends AbstractJdbcDAO {
         batchUpdate("insert into bst_assoc (type, source, target) values (?, ?, ?)", batch);
     }
 
+    /**
+     * Write changes, collected in write-behind mode. Called automatically before commit and before any other statement
+     */
+    @Override
+    public void flush() {
+        final UnitOfWork uow = writeBehind ? getUnitOfWork(false) : null;
+        if (uow == null || uow.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<Object[]> nodesBatch = new ArrayList<>();
+        final List<Object[]> classBatch = new ArrayList<>();
+        final List<Object[]> updateBatch = new ArrayList<>();
+        final List<Object[]> insertBatch = new ArrayList<>();
+        final List<Object[]> deleteBatch = new ArrayList<>();
+        final List<Object[]> deleteValuesBatch = new ArrayList<>();
+        final List<Object[]> modifiedBatch = new ArrayList<>();
+        for (UnitOfWork.Pending pending : uow.drain()) {
+            final Node current = pending.current;
+            final String id = current.id;
+            if (pending.isCreated()) {
+                nodesBatch.add(new Object[]{id, now, orNull(current.parent), orNull(current.type), Boolean.TRUE.equals(current.version) ? "T" : TypeConverter.NULL_STRING});
+                if (current.hasProperties()) {
+                    for (Map.Entry<String, Serializable> entry : current.getProperties().entrySet()) {
+                        insertProperty(id, insertBatch, entry.getKey(), entry.getValue());
+                    }
+                }
+            } else {
+                final int before = updateBatch.size() + insertBatch.size() + deleteBatch.size() + deleteValuesBatch.size();
+                final Node old = UnitOfWork.copy(pending.original);
+                if (current.hasProperties()) {
+                    updateProperties(id, current, old, updateBatch, insertBatch, deleteBatch, deleteValuesBatch);
+                }
+                if (old.hasProperties()) {
+                    for (String name : old.getProperties().keySet()) {
+                        deleteBatch.add(new Object[]{id, name});
+                    }
+                }
+                final boolean typeChanged = current.type != null && !current.type.equals(pending.original.type);
+                if (typeChanged) {
+                    classBatch.add(new Object[]{current.type, id});
+                }
+                if (typeChanged || before != updateBatch.size() + insertBatch.size() + deleteBatch.size() + deleteValuesBatch.size()) {
+                    modifiedBatch.add(new Object[]{now, id, pending.original.txnVersion});
+                }
+            }
+        }
+        batchUpdate("insert into bst_node (id, modified, txn_version, parent_id, class, version) values (?, ?, 0, ?, ?, ?)", nodesBatch, 0);
+        deleteValues(deleteValuesBatch);
+        deleteProperties(deleteBatch);
+        updateProperties(updateBatch);
+        insertProperties(insertBatch);
+        batchUpdate("update bst_node set class = ? where id = ?", classBatch, 1);
+        for (int affected : batchUpdate("update bst_node set modified = ?, txn_version = txn_version + 1 where id = ? and txn_version = ?", modifiedBatch, 1)) {
+            if (affected == 0) {
+                throw new OptimisticConflictException("already modified", "bst_node");
+            }
+        }
+    }
+
     public void clear() {
         update("delete from bst_aces");
+        update("update bst_node set acl_id = null");
+        update("delete from bst_acl_entry");
+        update("delete from bst_acl");
+        update("delete from bst_membership");
         update("delete from bst_assoc");
         update("delete from bst_props");
         update("delete from bst_node");
     }
 
-    private void setModified(String id, Date prev) {
+    private boolean isWriteBehind() {
+        return writeBehind && TransactionSynchronizationManager.isActualTransactionActive() && TransactionSynchronizationManager.isSynchronizationActive();
+    }
+
+    private UnitOfWork getUnitOfWork(boolean create) {
+        final TransactionContext context = create ? TransactionContext.get() : TransactionContext.current();
+        if (context == null) {
+            return null;
+        }
+        UnitOfWork uow = context.getState(this);
+        if (uow == null && create) {
+            uow = context.putState(this, new UnitOfWork());
+            writeBehind();
+            // own synchronization, changes should be written before commit of other participants
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public int getOrder() {
+                    return Ordered.HIGHEST_PRECEDENCE;
+                }
+
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    RepositoryDAO.this.flush();
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    context.removeState(RepositoryDAO.this);
+                }
+            });
+        }
+        return uow;
+    }
+
+    private UnitOfWork.Pending getPending(String id) {
+        final UnitOfWork uow = writeBehind && id != null ? getUnitOfWork(false) : null;
+        return uow != null ? uow.get(id) : null;
+    }
+
+    private UnitOfWork.Pending getPending(String id, Long txnVersion) {
+        UnitOfWork.Pending pending = getPending(id);
+        if (pending == null) {
+            final Node original = getNode(id);
+            if (original == null) {
+                throw new IllegalArgumentException("node not found: " + id);
+            }
+            pending = getUnitOfWork(true).loaded(original);
+        }
+        if (txnVersion != null && !pending.isCreated() && !txnVersion.equals(pending.original.txnVersion)) {
+            throw new OptimisticConflictException("already modified", "bst_node");
+        }
+        return pending;
+    }
+
+    private static Object orNull(String value) {
+        return value != null ? value : TypeConverter.NULL_STRING;
+    }
+
+    private void setModified(String id, Long prev) {
         if (prev == null) {
-            update("update bst_node set modified = ? where id = ?", System.currentTimeMillis(), id);
+            update("update bst_node set modified = ?, txn_version = txn_version + 1 where id = ?", System.currentTimeMillis(), id);
         } else {
-            final int affected = update("update bst_node set modified = ? where id = ? and modified = ?", System.currentTimeMillis(), id, prev.getTime());
+            final int affected = update("update bst_node set modified = ?, txn_version = txn_version + 1 where id = ? and txn_version = ?", System.currentTimeMillis(), id, prev);
             if (affected != 1) {
-                throw new OptimisticLockingFailureException("already modified");
+                throw new OptimisticConflictException("already modified", "bst_node");
             }
         }
     }
 
     @SafeVarargs
-    private final void setModified(String id, Date prev, final List<Object[]>... batches) {
+    private final void setModified(String id, Long prev, final List<Object[]>... batches) {
         if (batches != null) {
             for (List<Object[]> objects : batches) {
                 if (!objects.isEmpty()) {
@@ -757,6 +1079,35 @@ public class RepositoryDAO extends AbstractJdbcDAO {
     }
 
     private void setModified(Collection<String> ids) {
-        new Query("update bst_node").set("modified", System.currentTimeMillis()).where("id", ids).update();
+        new Query("update bst_node set txn_version = txn_version + 1").set("modified", System.currentTimeMillis()).where("id", ids).update();
+    }
+
+    /**
+     * Sort key of the last node on page, encoded as continuation token
+     */
+    private static class PageKey {
+        final long sortN;
+        final String sortS;
+        final String id;
+
+        PageKey(long sortN, String sortS, String id) {
+            this.sortN = sortN;
+            this.sortS = sortS;
+            this.id = id;
+        }
+
+        String encode() {
+            final String key = sortN + ":" + id + ":" + sortS;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageKey decode(String token) {
+            try {
+                final String[] key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 3);
+                return new PageKey(Long.parseLong(key[0]), key[2], key[1]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("invalid continuation token " + token);
+            }
+        }
     }
 }
@@ -0,0 +1,64 @@
+package com.github.vantonov1.basalt.repo.impl;
+
+import com.github.vantonov1.basalt.repo.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node changes, collected in transaction when write-behind is enabled. For every touched node keeps state read from DB (or nothing, if node is created in this transaction) and working copy with all changes applied.
+ * {@link RepositoryDAO} writes the difference as merged batches before commit or before any other statement
+ */
+class UnitOfWork {
+    static class Pending {
+        final Node original;
+        final Node current;
+
+        private Pending(Node original, Node current) {
+            this.original = original;
+            this.current = current;
+        }
+
+        boolean isCreated() {
+            return original == null;
+        }
+    }
+
+    private final Map<String, Pending> nodes = new LinkedHashMap<>();
+
+    Pending get(String id) {
+        return nodes.get(id);
+    }
+
+    void created(Node node) {
+        nodes.put(node.id, new Pending(null, node));
+    }
+
+    Pending loaded(Node original) {
+        final Pending pending = new Pending(original, copy(original));
+        nodes.put(original.id, pending);
+        return pending;
+    }
+
+    boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    List<Pending> drain() {
+        final List<Pending> result = new ArrayList<>(nodes.values());
+        nodes.clear();
+        return result;
+    }
+
+    static Node copy(Node node) {
+        final Node result = new Node(node.id, node.type, node.hasProperties() ? new HashMap<>(node.getProperties()) : null);
+        result.parent = node.parent;
+        result.modified = node.modified;
+        result.txnVersion = node.txnVersion;
+        result.version = node.version;
+        return result;
+    }
+}
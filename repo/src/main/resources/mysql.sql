@@ -11,4 +11,17 @@ CREATE INDEX bst_assoc_type ON bst_assoc (type);
 CREATE INDEX bst_assoc_name ON bst_assoc (name);
 CREATE INDEX bst_assoc_source ON bst_assoc (source, target);
 
+CREATE INDEX bst_aces_acl_node_id ON bst_aces (node_id, authority_id, mask);
 CREATE INDEX bst_aces_acl_authority_id ON bst_aces (authority_id);
+
+CREATE INDEX bst_acl_entry_acl_id ON bst_acl_entry (acl_id, authority_id, mask);
+CREATE INDEX bst_node_acl_id ON bst_node (acl_id);
+CREATE INDEX bst_membership_member_id ON bst_membership (member_id, group_id);
+
+CREATE TABLE bst_cache_log (
+  seq BIGINT AUTO_INCREMENT PRIMARY KEY,
+  created BIGINT NOT NULL,
+  origin CHAR(36) NOT NULL,
+  cache_name VARCHAR(255) NOT NULL,
+  cache_key VARCHAR(255) NOT NULL
+);
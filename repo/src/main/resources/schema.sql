@@ -1,10 +1,17 @@
+CREATE TABLE bst_acl (
+  id BIGINT PRIMARY KEY NOT NULL
+);
+
 CREATE TABLE bst_node (
   id CHAR(36) PRIMARY KEY NOT NULL,
   parent_id CHAR(36),
   version CHAR(1),
   modified BIGINT NOT NULL,
+  txn_version BIGINT DEFAULT 0 NOT NULL,
   class VARCHAR(255) NOT NULL,
-  CONSTRAINT parent FOREIGN KEY (parent_id) REFERENCES bst_node (id) ON DELETE NO ACTION
+  acl_id BIGINT,
+  CONSTRAINT parent FOREIGN KEY (parent_id) REFERENCES bst_node (id) ON DELETE NO ACTION,
+  CONSTRAINT node_acl FOREIGN KEY (acl_id) REFERENCES bst_acl (id) ON DELETE NO ACTION
 );
 
 CREATE TABLE bst_props (
@@ -30,4 +37,17 @@ CREATE TABLE bst_aces (
   authority_id CHAR(36) NOT NULL,
   mask SMALLINT,
   CONSTRAINT aces_node FOREIGN KEY (node_id) REFERENCES bst_node (id) ON DELETE CASCADE
-);
\ No newline at end of file
+);
+
+CREATE TABLE bst_acl_entry (
+  acl_id BIGINT NOT NULL,
+  authority_id CHAR(36) NOT NULL,
+  mask SMALLINT NOT NULL,
+  CONSTRAINT acl_entry_acl FOREIGN KEY (acl_id) REFERENCES bst_acl (id) ON DELETE CASCADE
+);
+
+CREATE TABLE bst_membership (
+  group_id CHAR(36) NOT NULL,
+  member_id CHAR(36) NOT NULL,
+  PRIMARY KEY (group_id, member_id)
+);
@@ -16,4 +16,16 @@ CREATE INDEX bst_assoc_target ON bst_assoc (target);
 CREATE INDEX bst_aces_acl_node_id ON bst_aces (node_id) INCLUDE(authority_id, mask);
 CREATE INDEX bst_aces_acl_authority_id ON bst_aces (authority_id) INCLUDE(node_id);
 
+CREATE INDEX bst_acl_entry_acl_id ON bst_acl_entry (acl_id) INCLUDE(authority_id, mask);
+CREATE INDEX bst_node_acl_id ON bst_node (acl_id) INCLUDE(id);
+CREATE INDEX bst_membership_member_id ON bst_membership (member_id) INCLUDE(group_id);
+
+CREATE TABLE bst_cache_log (
+  seq BIGINT IDENTITY(1,1) PRIMARY KEY,
+  created BIGINT NOT NULL,
+  origin CHAR(36) NOT NULL,
+  cache_name VARCHAR(255) NOT NULL,
+  cache_key VARCHAR(255) NOT NULL
+);
+
 COMMIT TRANSACTION
\ No newline at end of file
@@ -0,0 +1,3 @@
+ALTER TABLE bst_node ADD txn_version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE bst_node ADD acl_id BIGINT;
+ALTER TABLE bst_node ADD CONSTRAINT node_acl FOREIGN KEY (acl_id) REFERENCES bst_acl (id) ON DELETE NO ACTION;
@@ -0,0 +1,69 @@
+package test;
+
+import com.github.vantonov1.basalt.cache.BoundedCache;
+import com.github.vantonov1.basalt.cache.BoundedCacheManager;
+import com.github.vantonov1.basalt.repo.Node;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BoundedCacheTest {
+    @Test
+    public void testWeight() {
+        final BoundedCache cache = new BoundedCache("test", 10, 0, BoundedCacheManager.DEFAULT_WEIGHER);
+        final Map<String, Serializable> properties = new HashMap<>();
+        properties.put("title", "abc");
+        properties.put("tags", (Serializable) Arrays.asList("a", "b", "c"));
+        cache.put("node", new Node("type", properties));
+        Assert.assertEquals(5, cache.getWeight());
+        cache.put("list", Collections.nCopies(20, "x"));
+        Assert.assertNull(cache.get("list"));
+        Assert.assertEquals(5, cache.getWeight());
+        cache.put("node", new Node("type", Collections.singletonMap("title", "abc")));
+        Assert.assertEquals(2, cache.getWeight());
+        cache.evict("node");
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testAdmission() {
+        final BoundedCache cache = new BoundedCache("test", 100, 0, BoundedCacheManager.DEFAULT_WEIGHER);
+        for (int i = 0; i < 100; i++) {
+            cache.put("hot" + i, i);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                Assert.assertNotNull(cache.get("hot" + i));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, i);
+        }
+        Assert.assertEquals(100, cache.getWeight());
+        int hits = 0;
+        for (int i = 0; i < 100; i++) {
+            hits += cache.get("hot" + i) != null ? 1 : 0;
+        }
+        Assert.assertTrue("hot entries evicted by scan: " + hits, hits > 90);
+    }
+
+    @Test
+    public void testExpiration() throws InterruptedException {
+        final BoundedCache cache = new BoundedCache("test", 100, 50, BoundedCacheManager.DEFAULT_WEIGHER);
+        cache.put("key", "value");
+        Assert.assertNotNull(cache.get("key"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getWeight());
+        Assert.assertTrue(cache.getHotKeys(10).isEmpty());
+        cache.put("key", "value");
+        Assert.assertEquals(1, cache.getWeight());
+        Assert.assertEquals(Collections.singletonList("key"), cache.getHotKeys(10));
+    }
+}
@@ -0,0 +1,76 @@
+package test;
+
+import com.github.vantonov1.basalt.cache.CacheLogPoller;
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collections;
+
+@TestPropertySource(properties = "cache.cluster.poll.interval=3600000")
+public class CacheLogTest extends BaseTest {
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private TransactionalCacheManager cacheManager;
+
+    @Autowired
+    private CacheLogPoller poller;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    public void testInvalidation() throws SQLException {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+        commit(tx);
+
+        tx = beginTx(false);
+        nodeService.setProperty(id, "title", "def");
+        commit(tx);
+        Assert.assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject("select count(*) from bst_cache_log where cache_name = 'nodes' and cache_key = ?", Integer.class, id));
+
+        tx = beginTx(true);
+        Assert.assertEquals("def", nodeService.getProperties(id).get("title"));
+        commit(tx);
+        Assert.assertTrue(cacheManager.contains("nodes", id));
+
+        jdbcTemplate.update("insert into bst_cache_log (created, origin, cache_name, cache_key) values (?, 'other', 'nodes', ?)", System.currentTimeMillis(), id);
+        poller.poll();
+        Assert.assertFalse(cacheManager.contains("nodes", id));
+    }
+
+    @Test
+    public void testOutOfOrderCommit() throws SQLException {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Object tx = beginTx(false);
+        final String first = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+        final String second = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+        commit(tx);
+        poller.poll();
+
+        tx = beginTx(true);
+        nodeService.getProperties(first);
+        nodeService.getProperties(second);
+        commit(tx);
+        final long seq = jdbcTemplate.queryForObject("select max(seq) from bst_cache_log", Long.class);
+        jdbcTemplate.update("insert into bst_cache_log (seq, created, origin, cache_name, cache_key) values (?, ?, 'other', 'nodes', ?)", seq + 2, System.currentTimeMillis(), second);
+        poller.poll();
+        Assert.assertTrue(cacheManager.contains("nodes", first));
+        Assert.assertFalse(cacheManager.contains("nodes", second));
+
+        jdbcTemplate.update("insert into bst_cache_log (seq, created, origin, cache_name, cache_key) values (?, ?, 'other', 'nodes', ?)", seq + 1, System.currentTimeMillis(), first);
+        poller.poll();
+        Assert.assertFalse(cacheManager.contains("nodes", first));
+    }
+}
@@ -0,0 +1,66 @@
+package test;
+
+import com.github.vantonov1.basalt.cache.CacheWarmer;
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@TestPropertySource(properties = {"cache.warmup.file=target/hot-keys.txt", "cache.warmup.interval=0"})
+public class CacheWarmerTest extends BaseTest {
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private TransactionalCacheManager cacheManager;
+
+    @Autowired
+    private CacheManager l2CacheManager;
+
+    @Autowired
+    private CacheWarmer cacheWarmer;
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Object tx = beginTx(false);
+        final String parent = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "parent")), null, null);
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(nodeService.createNode(parent, new Node("type", Collections.singletonMap("title", "abc" + i)), "contains", null));
+        }
+        commit(tx);
+
+        tx = beginTx(true);
+        nodeService.getProperties(ids);
+        nodeService.getAllAssoc(parent);
+        commit(tx);
+        ids.forEach(id -> Assert.assertTrue(cacheManager.contains("nodes", id)));
+        Assert.assertTrue(cacheManager.contains("children", parent));
+
+        cacheWarmer.save();
+        Assert.assertTrue(Files.readAllLines(Paths.get("target/hot-keys.txt")).size() >= ids.size());
+        l2CacheManager.getCache("nodes").clear();
+        l2CacheManager.getCache("children").clear();
+        l2CacheManager.getCache("parents").clear();
+        ids.forEach(id -> Assert.assertFalse(cacheManager.contains("nodes", id)));
+        Assert.assertFalse(cacheManager.contains("children", parent));
+
+        Assert.assertTrue(cacheWarmer.load().get() >= ids.size());
+        ids.forEach(id -> Assert.assertTrue(cacheManager.contains("nodes", id)));
+        Assert.assertTrue(cacheManager.contains("children", parent));
+        Assert.assertTrue(cacheManager.contains("parents", parent));
+        tx = beginTx(true);
+        Assert.assertEquals(ids.size(), nodeService.getAllAssoc(parent).size());
+        commit(tx);
+    }
+}
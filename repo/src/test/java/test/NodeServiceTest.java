@@ -1,14 +1,26 @@
 package test;
 
+import com.github.vantonov1.basalt.cache.TransactionalCacheManager;
 import com.github.vantonov1.basalt.repo.Assoc;
+import com.github.vantonov1.basalt.repo.DecorrelatedJitterRetryPolicy;
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.OptimisticConflictException;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+import com.github.vantonov1.basalt.repo.RetryStatistics;
+import com.github.vantonov1.basalt.repo.RetryingTransactionHelper;
+import com.github.vantonov1.basalt.repo.SearchService;
+import com.github.vantonov1.basalt.repo.impl.GUID;
+import com.github.vantonov1.basalt.repo.impl.RepositoryDAO;
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.PlatformTransactionManager;
 
+import javax.management.ObjectName;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,6 +30,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NodeServiceTest extends BaseTest {
     @Autowired
@@ -26,6 +42,15 @@ public class NodeServiceTest extends BaseTest {
     @Autowired
     PlatformTransactionManager transactionManager;
 
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private RepositoryDAO repositoryDAO;
+
+    @Autowired
+    private TransactionalCacheManager cacheManager;
+
     @Test
     public void testNodeCRUD() throws SQLException {
         final Object tx = beginTx(false);
@@ -53,6 +78,46 @@ public class NodeServiceTest extends BaseTest {
         commit(tx);
     }
 
+    @Test
+    public void testMissingNodes() throws SQLException {
+        final String id = GUID.generate();
+        Object tx = beginTx(true);
+        Assert.assertNull(nodeService.getProperties(id));
+        Assert.assertFalse(nodeService.exists(id));
+        Assert.assertTrue(nodeService.getProperties(Arrays.asList(id, GUID.generate())).isEmpty());
+        commit(tx);
+
+        tx = beginTx(false);
+        Assert.assertFalse(nodeService.exists(id));
+        Assert.assertEquals(id, nodeService.createNode(null, new Node(id, "type", Collections.singletonMap("title", "abc")), null, null));
+        Assert.assertTrue(nodeService.exists(id));
+        Assert.assertNotNull(nodeService.getProperties(id));
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertTrue(nodeService.exists(id));
+        Assert.assertEquals("abc", nodeService.getProperty(id, "title"));
+        Assert.assertEquals(1, nodeService.getProperties(Arrays.asList(id, GUID.generate())).size());
+        commit(tx);
+    }
+
+    @Test
+    public void testCacheStatistics() throws Exception {
+        Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+        commit(tx);
+        final long hits = cacheManager.getStatistics().get("nodes").getL2Hits();
+        tx = beginTx(true);
+        nodeService.getProperties(id);
+        commit(tx);
+        tx = beginTx(true);
+        nodeService.getProperties(id);
+        commit(tx);
+        Assert.assertEquals(hits + 1, cacheManager.getStatistics().get("nodes").getL2Hits());
+        final Object l2Hits = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName("com.github.vantonov1.basalt:type=Cache,name=\"nodes\""), "L2Hits");
+        Assert.assertEquals(hits + 1, l2Hits);
+    }
+
     @Test
     public void testProperties() throws SQLException {
         final Object tx = beginTx(false);
@@ -93,6 +158,169 @@ public class NodeServiceTest extends BaseTest {
         commit(tx);
     }
 
+    @Test
+    public void testOptimisticLocking() throws SQLException {
+        Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+        final Long created = nodeService.getProperties(id).txnVersion;
+        Assert.assertNotNull(created);
+
+        nodeService.setProperty(id, "title", "def");
+        final Long modified = nodeService.getProperties(id).txnVersion;
+        Assert.assertTrue(modified > created);
+
+        final Node stale = new Node(id, "type", Collections.singletonMap("title", "xyz"));
+        stale.txnVersion = created;
+        try {
+            nodeService.updateProperties(stale, false);
+            Assert.fail("stale version accepted");
+        } catch (OptimisticLockingFailureException ignored) {
+        }
+        commit(tx);
+
+        tx = beginTx(false);
+        final Node actual = new Node(id, "type", Collections.singletonMap("title", "xyz"));
+        actual.txnVersion = modified;
+        nodeService.updateProperties(actual, false);
+        Assert.assertEquals("xyz", nodeService.getProperty(id, "title"));
+        commit(tx);
+    }
+
+    @Test
+    public void testCounters() throws SQLException {
+        final Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+        Assert.assertEquals(5, nodeService.increment(id, "count", 5));
+        final Long version = nodeService.getProperties(id).txnVersion;
+        Assert.assertEquals(7, nodeService.increment(id, "count", 2));
+        Assert.assertEquals(7L, (long) nodeService.<Long>getProperty(id, "count"));
+        Assert.assertEquals(version, nodeService.getProperties(id).txnVersion);
+
+        Assert.assertFalse(nodeService.compareAndSet(id, "state", "new", "done"));
+        Assert.assertTrue(nodeService.compareAndSet(id, "state", null, "new"));
+        Assert.assertTrue(nodeService.compareAndSet(id, "state", "new", "done"));
+        Assert.assertFalse(nodeService.compareAndSet(id, "state", "new", "failed"));
+        Assert.assertEquals("done", nodeService.getProperty(id, "state"));
+        Assert.assertTrue(nodeService.compareAndSet(id, "count", 7, null));
+        Assert.assertNull(nodeService.getProperty(id, "count"));
+        Assert.assertFalse(nodeService.compareAndSet(id, "state", null, "new"));
+        Assert.assertEquals("done", nodeService.getProperty(id, "state"));
+
+        Assert.assertTrue(nodeService.compareAndSet(id, "small", null, Integer.MAX_VALUE - 1));
+        Assert.assertEquals(Integer.MAX_VALUE, nodeService.increment(id, "small", 1));
+        try {
+            nodeService.increment(id, "small", 1);
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        Assert.assertEquals(Integer.MAX_VALUE, (int) nodeService.<Integer>getProperty(id, "small"));
+        commit(tx);
+    }
+
+    @Test
+    public void testWriteBehind() throws SQLException {
+        repositoryDAO.setWriteBehind(true);
+        try {
+            Object tx = beginTx(false);
+            final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+            nodeService.setProperty(id, "title", "def");
+            nodeService.setProperty(id, "tags", (Serializable) Arrays.asList("a", "b"));
+            nodeService.updateProperties(new Node(id, "type", Collections.singletonMap("count", 1)), false);
+            nodeService.removeProperty(id, "count");
+            Assert.assertEquals("def", nodeService.getProperty(id, "title"));
+            Assert.assertNull(nodeService.getProperty(id, "count"));
+            Assert.assertEquals(Collections.singletonList(id), searchService.search(new QueryBuilder().type("type").is("title", "def")));
+            commit(tx);
+
+            tx = beginTx(false);
+            final Node created = nodeService.getProperties(id);
+            Assert.assertEquals(Long.valueOf(0), created.txnVersion);
+            Assert.assertEquals(Arrays.asList("a", "b"), created.get("tags"));
+            nodeService.setProperty(id, "title", "xyz");
+            nodeService.setProperty(id, "tags", (Serializable) Collections.singletonList("c"));
+            nodeService.setProperty(id, "count", 2);
+            final Node stale = new Node(id, "type", Collections.singletonMap("title", "abc"));
+            stale.txnVersion = created.txnVersion + 1;
+            try {
+                nodeService.updateProperties(stale, false);
+                Assert.fail("stale version accepted");
+            } catch (OptimisticLockingFailureException ignored) {
+            }
+            commit(tx);
+
+            tx = beginTx(true);
+            final Node updated = nodeService.getProperties(id);
+            Assert.assertEquals(Long.valueOf(1), updated.txnVersion);
+            Assert.assertEquals("xyz", updated.get("title"));
+            Assert.assertEquals(Collections.singletonList("c"), updated.get("tags"));
+            Assert.assertEquals(2, (int) updated.<Integer>get("count"));
+            commit(tx);
+        } finally {
+            repositoryDAO.setWriteBehind(false);
+        }
+    }
+
+    @Test
+    public void testRetries() {
+        final RetryStatistics statistics = new RetryStatistics();
+        final RetryingTransactionHelper helper = new RetryingTransactionHelper(transactionManager, new DecorrelatedJitterRetryPolicy(1, 5, 3, 1000), statistics);
+        final AtomicInteger attempts = new AtomicInteger();
+        final String id = helper.doInTransaction("create", false, () -> {
+            final String created = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+            if (attempts.incrementAndGet() < 3) {
+                throw new OptimisticConflictException("conflict", "bst_node");
+            }
+            return created;
+        });
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertEquals("abc", helper.doInTransaction(true, () -> nodeService.getProperty(id, "title")));
+        final RetryStatistics.Operation create = statistics.get("create");
+        Assert.assertEquals(1, create.getExecutions());
+        Assert.assertEquals(2, create.getRetries());
+        Assert.assertEquals(0, create.getGiveUps());
+        Assert.assertEquals(Long.valueOf(2), create.getConflicts().get("bst_node"));
+        Assert.assertEquals(1, statistics.get(getClass().getName()).getExecutions());
+
+        try {
+            helper.doInTransaction("fail", false, () -> {
+                throw new OptimisticConflictException("conflict", "bst_node");
+            });
+            Assert.fail();
+        } catch (OptimisticLockingFailureException ignored) {
+        }
+        Assert.assertEquals(3, statistics.get("fail").getRetries());
+        Assert.assertEquals(1, statistics.get("fail").getGiveUps());
+    }
+
+    @Test
+    public void testRetriesAsync() throws Exception {
+        final RetryStatistics statistics = new RetryStatistics();
+        final RetryingTransactionHelper helper = new RetryingTransactionHelper(transactionManager, new DecorrelatedJitterRetryPolicy(1, 5, 3, 1000), statistics);
+        final AtomicInteger attempts = new AtomicInteger();
+        final CompletableFuture<String> id = helper.doInTransactionAsync("create", false, () -> {
+            final String created = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "abc")), null, null);
+            if (attempts.incrementAndGet() < 3) {
+                throw new OptimisticConflictException("conflict", "bst_node");
+            }
+            return created;
+        });
+        final CompletableFuture<Object> title = id.thenCompose(created -> helper.doInTransactionAsync(true, () -> nodeService.getProperty(created, "title")));
+        Assert.assertEquals("abc", title.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertEquals(2, statistics.get("create").getRetries());
+
+        final CompletableFuture<Object> failed = helper.doInTransactionAsync("fail", false, () -> {
+            throw new OptimisticConflictException("conflict", "bst_node");
+        });
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof OptimisticConflictException);
+        }
+        Assert.assertEquals(1, statistics.get("fail").getGiveUps());
+    }
+
     @Test
     public void testBulk() throws SQLException {
         final Object tx = beginTx(false);
@@ -247,4 +475,54 @@ public class NodeServiceTest extends BaseTest {
         commit(tx);
     }
 
+    @Test
+    public void testAssocByTypeCache() throws SQLException {
+        final String type = "cachedAssocType";
+        Object tx = beginTx(false);
+        final String parent = nodeService.createNode(null, new Node("type", Collections.emptyMap()), null, null);
+        final String child = nodeService.createNode(parent, new Node("type", Collections.emptyMap()), type, "first");
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertEquals(1, nodeService.getAllAssocByType(type).size());
+        commit(tx);
+        Assert.assertTrue(cacheManager.contains("assocByType", type));
+
+        tx = beginTx(false);
+        final String other = nodeService.createNode(parent, new Node("type", Collections.emptyMap()), type, "second");
+        nodeService.addChild(other, child, type, "third", true);
+        Assert.assertEquals(3, nodeService.getAllAssocByType(type).size());
+        rollback(tx);
+        Assert.assertTrue(cacheManager.contains("assocByType", type));
+        Assert.assertEquals(1, nodeService.getAllAssocByType(type).size());
+
+        tx = beginTx(false);
+        final String another = nodeService.createNode(parent, new Node("type", Collections.emptyMap()), type, "second");
+        nodeService.addChild(another, child, type, "third", true);
+        commit(tx);
+        Assert.assertTrue(cacheManager.contains("assocByType", type));
+        tx = beginTx(true);
+        Assert.assertEquals(3, nodeService.getAllAssocByType(type).size());
+        commit(tx);
+
+        tx = beginTx(false);
+        nodeService.deleteChild(another, child, null, null);
+        nodeService.deleteNode(another);
+        commit(tx);
+        Assert.assertTrue(cacheManager.contains("assocByType", type));
+        tx = beginTx(true);
+        final List<Assoc> assocs = nodeService.getAllAssocByType(type);
+        Assert.assertEquals(Collections.singletonList(new Assoc(type, "first", parent, child)), assocs);
+        Assert.assertEquals(assocs, repositoryDAO.getAllAssocByType(type));
+        commit(tx);
+
+        tx = beginTx(false);
+        nodeService.deleteNode(parent);
+        commit(tx);
+        Assert.assertTrue(cacheManager.contains("assocByType", type));
+        tx = beginTx(true);
+        Assert.assertTrue(nodeService.getAllAssocByType(type).isEmpty());
+        commit(tx);
+    }
+
 }
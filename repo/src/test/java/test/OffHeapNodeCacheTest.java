@@ -0,0 +1,52 @@
+package test;
+
+import com.github.vantonov1.basalt.cache.OffHeapNodeCache;
+import com.github.vantonov1.basalt.repo.Node;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+public class OffHeapNodeCacheTest {
+    @Test
+    public void testEncoding() {
+        final OffHeapNodeCache cache = new OffHeapNodeCache("nodes", 1 << 16, 1 << 12);
+        final Map<String, Serializable> properties = new HashMap<>();
+        properties.put("title", "абв");
+        properties.put("count", 42);
+        properties.put("size", 42L);
+        properties.put("ratio", 0.5);
+        properties.put("flag", true);
+        properties.put("date", new Date(1000));
+        properties.put("tags", new ArrayList<>(Arrays.asList("a", "b")));
+        properties.put("empty", new ArrayList<>());
+        properties.put("map", new HashMap<>(Collections.singletonMap("k", "v")));
+        final Node node = new Node("id", "type", properties);
+        node.parent = "parent";
+        node.modified = new Date();
+        node.txnVersion = 3L;
+        node.version = false;
+        cache.put("id", node);
+        Assert.assertEquals(node, cache.get("id").get());
+        Assert.assertNotSame(cache.get("id").get(), cache.get("id").get());
+        cache.evict("id");
+        Assert.assertNull(cache.get("id"));
+    }
+
+    @Test
+    public void testEviction() {
+        final OffHeapNodeCache cache = new OffHeapNodeCache("nodes", 1 << 12, 1 << 10);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("node" + i, new Node("node" + i, "type", Collections.singletonMap("title", "title" + i)));
+        }
+        Assert.assertTrue(cache.size() > 0 && cache.size() < 1000);
+        Assert.assertNull(cache.get("node0"));
+        Assert.assertEquals("title999", ((Node) cache.get("node999").get()).get("title"));
+    }
+}
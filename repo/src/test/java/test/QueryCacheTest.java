@@ -0,0 +1,68 @@
+package test;
+
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.QueryBuilder;
+import com.github.vantonov1.basalt.repo.SearchService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collections;
+
+@TestPropertySource(properties = "repo.query.cache=true")
+public class QueryCacheTest extends BaseTest {
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    public void testInvalidation() throws SQLException {
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("report", Collections.singletonMap("status", "new")), null, null);
+        commit(tx);
+
+        final QueryBuilder byStatus = new QueryBuilder().type("report").is("status", "new");
+        tx = beginTx(true);
+        Assert.assertEquals(1, searchService.count(byStatus));
+        Assert.assertEquals(Collections.singletonList(id), searchService.search(byStatus));
+        commit(tx);
+
+        // changes made bypassing the service are not seen while cached result is valid
+        jdbcTemplate.update("update bst_props set value_s = 'done' where node_id = ? and name = 'status'", id);
+        tx = beginTx(false);
+        Assert.assertEquals(1, searchService.count(byStatus));
+        nodeService.createNode(null, new Node("other", Collections.singletonMap("title", "abc")), null, null);
+        commit(tx);
+        tx = beginTx(true);
+        Assert.assertEquals(1, searchService.count(byStatus));
+        commit(tx);
+
+        tx = beginTx(false);
+        nodeService.createNode(null, new Node("report", Collections.singletonMap("status", "new")), null, null);
+        Assert.assertEquals(1, searchService.count(byStatus));
+        Assert.assertEquals(1, searchService.search(byStatus).size());
+        commit(tx);
+
+        tx = beginTx(false);
+        nodeService.setProperty(id, "status", "new");
+        Assert.assertEquals(2, searchService.count(byStatus));
+        nodeService.deleteNode(id);
+        Assert.assertEquals(1, searchService.count(byStatus));
+        rollback(tx);
+
+        tx = beginTx(true);
+        Assert.assertEquals(1, searchService.count(byStatus));
+        commit(tx);
+    }
+}
@@ -0,0 +1,30 @@
+package test;
+
+import com.github.vantonov1.basalt.cache.ScalableBloomFilter;
+import com.github.vantonov1.basalt.repo.impl.GUID;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScalableBloomFilterTest {
+    @Test
+    public void testGrowth() {
+        final ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            final String id = GUID.generate();
+            ids.add(id);
+            filter.put(id);
+        }
+        for (String id : ids) {
+            Assert.assertTrue(filter.mightContain(id));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 20000; i++) {
+            falsePositives += filter.mightContain(GUID.generate()) ? 1 : 0;
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 400);
+    }
+}
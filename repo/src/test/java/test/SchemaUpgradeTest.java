@@ -0,0 +1,75 @@
+package test;
+
+import com.github.vantonov1.basalt.BasaltRepoConfiguration;
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+import org.hsqldb.jdbc.JDBCDriver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Starts the repository on database created by the first released schema (baseline-schema.sql), as on upgrade of existing installation
+ */
+public class SchemaUpgradeTest {
+    private final String url = "jdbc:hsqldb:mem:basalt-upgrade-" + UUID.randomUUID();
+    private final DataSource dataSource = new SimpleDriverDataSource(new JDBCDriver(), url, "sa", "");
+    private ConfigurableApplicationContext context;
+
+    @Configuration
+    @EnableAutoConfiguration
+    @Import(BasaltRepoConfiguration.class)
+    static class UpgradeConfiguration {
+    }
+
+    @Before
+    public void before() {
+        new ResourceDatabasePopulator(new ClassPathResource("baseline-schema.sql")).execute(dataSource);
+    }
+
+    @After
+    public void after() {
+        if (context != null) {
+            context.close();
+        }
+        new JdbcTemplate(dataSource).execute("shutdown");
+    }
+
+    @Test
+    public void testTxnVersion() {
+        final String existing = UUID.randomUUID().toString();
+        new JdbcTemplate(dataSource).update("insert into bst_node (id, modified, class) values (?, ?, 'doc')", existing, System.currentTimeMillis());
+
+        context = new SpringApplicationBuilder(UpgradeConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.config.name=upgrade", "spring.datasource.url=" + url, "spring.datasource.initialization-mode=never")
+                .run();
+        final NodeService nodeService = context.getBean(NodeService.class);
+        final TransactionTemplate tx = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        Assert.assertEquals(Long.valueOf(0), tx.execute(status -> nodeService.getProperties(existing).txnVersion));
+        tx.execute(status -> {
+            nodeService.setProperty(existing, "title", "abc");
+            return null;
+        });
+        Assert.assertEquals(Long.valueOf(1), tx.execute(status -> nodeService.getProperties(existing).txnVersion));
+        final String created = tx.execute(status -> nodeService.createNode(existing, new Node("doc", Collections.singletonMap("title", "def")), "contains", null));
+        Assert.assertEquals("def", tx.execute(status -> nodeService.getProperties(created).get("title")));
+    }
+}
@@ -2,6 +2,7 @@ package test;
 
 import com.github.vantonov1.basalt.repo.Node;
 import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.Page;
 import com.github.vantonov1.basalt.repo.QueryBuilder;
 import com.github.vantonov1.basalt.repo.SearchService;
 import org.junit.Assert;
@@ -11,6 +12,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -127,6 +129,45 @@ public class SearchServiceTest extends BaseTest {
         Assert.assertTrue(mustNotHaveChildren.contains(id2));
     }
 
+    @Test
+    public void testPages() throws SQLException {
+        final Object tx = beginTx(false);
+        final List<Node> children = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            children.add(new Node("content", i % 5 == 0 ? null : Collections.<String, Serializable>singletonMap("name", "n" + (char) ('z' - i))));
+        }
+        final List<String> ids = nodeService.createNodes(id2, children, "child");
+        nodeService.createNode(id2, new Node("content", Collections.<String, Serializable>singletonMap("name", "other")), "link", null);
+        commit(tx);
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += 5) {
+            expected.add(ids.get(i));
+        }
+        Collections.sort(expected);//without name, sorted by id
+        for (int i = ids.size() - 1; i >= 0; i--) {
+            if (i % 5 != 0) {
+                expected.add(ids.get(i));
+            }
+        }
+
+        final List<String> listed = new ArrayList<>();
+        String next = null;
+        do {
+            final Page<String> page = searchService.search(new QueryBuilder().childOf(id2, "child"), "name", next, 10);
+            Assert.assertTrue(page.items.size() <= 10);
+            listed.addAll(page.items);
+            next = page.next;
+        } while (next != null);
+        Assert.assertEquals(expected, listed);
+
+        final Page<String> all = searchService.search(new QueryBuilder().childOf(id2, null), "name", null, 100);
+        Assert.assertEquals(26, all.items.size());
+        Assert.assertFalse(all.hasNext());
+        Assert.assertTrue(searchService.search(new QueryBuilder(), "name", null, 100).items.containsAll(ids));//no where clause
+        Assert.assertTrue(searchService.search(new QueryBuilder().is("name", " where "), "name", null, 10).items.isEmpty());
+    }
+
     @Test
     public void testGroups() {
         final List<String> shouldHaveGroups = searchService.search(new QueryBuilder()
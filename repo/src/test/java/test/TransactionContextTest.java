@@ -0,0 +1,87 @@
+package test;
+
+import com.github.vantonov1.basalt.repo.Node;
+import com.github.vantonov1.basalt.repo.NodeService;
+import com.github.vantonov1.basalt.repo.TransactionContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.Collections;
+
+@TestPropertySource(properties = "cache.jmx=false")
+public class TransactionContextTest extends BaseTest {
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void testRequiresNew() throws SQLException {
+        Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "old")), null, null);
+        final String other = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "other")), null, null);
+        commit(tx);
+
+        tx = beginTx(false);
+        nodeService.setProperty(id, "title", "new");
+        Assert.assertEquals("new", getTitle(id));
+        final TransactionContext outer = TransactionContext.current();
+        Assert.assertNotNull(outer);
+
+        final TransactionTemplate requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        requiresNew.execute(status -> {
+            Assert.assertNull(TransactionContext.current());//outer context is suspended
+            Assert.assertEquals("old", getTitle(id));//uncommitted change of the outer transaction is not visible through the cache
+            nodeService.setProperty(other, "title", "changed");
+            Assert.assertNotSame(outer, TransactionContext.current());
+            return null;
+        });
+
+        Assert.assertSame(outer, TransactionContext.current());//resumed
+        Assert.assertEquals("new", getTitle(id));
+        Assert.assertEquals("changed", getTitle(other));//committed by the inner transaction
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertEquals("new", getTitle(id));
+        Assert.assertEquals("changed", getTitle(other));
+        commit(tx);
+    }
+
+    @Test
+    public void testRequiresNewRollback() throws SQLException {
+        Object tx = beginTx(false);
+        final String id = nodeService.createNode(null, new Node("type", Collections.singletonMap("title", "old")), null, null);
+        commit(tx);
+
+        tx = beginTx(false);
+        Assert.assertEquals("old", getTitle(id));//cached in the outer transaction
+        final TransactionTemplate requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        requiresNew.execute(status -> {
+            nodeService.setProperty(id, "title", "rolled back");
+            Assert.assertEquals("rolled back", getTitle(id));
+            status.setRollbackOnly();
+            return null;
+        });
+        Assert.assertEquals("old", getTitle(id));
+        commit(tx);
+
+        tx = beginTx(true);
+        Assert.assertEquals("old", getTitle(id));
+        commit(tx);
+    }
+
+    private Serializable getTitle(String id) {
+        return nodeService.getProperties(id).get("title");
+    }
+}
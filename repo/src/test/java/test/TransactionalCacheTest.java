@@ -0,0 +1,201 @@
+package test;
+
+import com.github.vantonov1.basalt.cache.CacheStatistics;
+import com.github.vantonov1.basalt.cache.TransactionalCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TransactionalCacheTest {
+    private final ConcurrentMapCache l2 = new ConcurrentMapCache("test");
+    private final TransactionalCache<String> cache = new TransactionalCache<>("test", l2);
+    private Tx writer;
+    private Tx reader;
+
+    @Before
+    public void setUp() {
+        writer = new Tx();
+        reader = new Tx();
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        l2.put("key", "old");
+        writer.run(() -> cache.remove("key"));
+        reader.run(() -> cache.remove("key"));
+        Assert.assertNull(writer.call(() -> cache.get("key")));
+        reader.rollback();
+        writer.run(() -> cache.putExisting("key", "new"));
+        writer.commit();
+        Assert.assertNull(l2.get("key"));
+        final Tx next = new Tx();
+        Assert.assertNull(next.call(() -> cache.get("key")));
+        next.rollback();
+    }
+
+    @Test
+    public void testInFlight() throws Exception {
+        l2.put("key", "old");
+        l2.put("other", "other");
+        writer.run(() -> cache.remove("key"));
+        Assert.assertNull(reader.call(() -> cache.get("key")));
+        Assert.assertEquals("other", reader.call(() -> cache.get("other")));
+        reader.run(() -> cache.putExisting("key", "old"));
+        Assert.assertEquals("old", l2.get("key").get());
+        writer.rollback();
+        final Tx next = new Tx();
+        Assert.assertEquals("old", next.call(() -> cache.get("key")));
+        next.rollback();
+    }
+
+    @Test
+    public void testStalePut() throws Exception {
+        Assert.assertNull(reader.call(() -> cache.get("key")));
+        writer.run(() -> cache.remove("key"));
+        writer.commit();
+        reader.run(() -> cache.putExisting("key", "stale"));
+        Assert.assertNull(l2.get("key"));
+        Assert.assertEquals("stale", reader.call(() -> cache.get("key")));
+        reader.commit();
+
+        final Tx fresh = new Tx();
+        Assert.assertNull(fresh.call(() -> cache.get("key")));
+        fresh.run(() -> cache.putExisting("key", "fresh"));
+        fresh.commit();
+        Assert.assertEquals("fresh", l2.get("key").get());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        l2.put("key", "a");
+        writer.run(() -> cache.update("key", v -> v.endsWith("b") ? v : v + "b"));
+        Assert.assertEquals("ab", writer.call(() -> cache.get("key")));
+        Assert.assertEquals("a", reader.call(() -> cache.get("key")));
+        writer.run(() -> cache.update("key", v -> v.endsWith("c") ? v : v + "c"));
+        Assert.assertEquals("abc", writer.call(() -> cache.get("key")));
+        writer.commit();
+        Assert.assertEquals("abc", l2.get("key").get());
+
+        final Tx rolledBack = new Tx();
+        rolledBack.run(() -> cache.update("key", v -> v + "d"));
+        rolledBack.rollback();
+        Assert.assertEquals("abc", l2.get("key").get());
+
+        final Tx removed = new Tx();
+        removed.run(() -> cache.update("key", v -> v + "e"));
+        removed.run(() -> cache.remove("key"));
+        removed.commit();
+        Assert.assertNull(l2.get("key"));
+    }
+
+    @Test
+    public void testUpdateInFlight() throws Exception {
+        l2.put("key", "a");
+        reader.run(() -> cache.remove("key"));
+        writer.run(() -> cache.update("key", v -> v + "b"));
+        writer.commit();
+        Assert.assertNull(l2.get("key"));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        l2.put("key", "value");
+        Assert.assertEquals("value", reader.call(() -> cache.get("key")));
+        Assert.assertNull(reader.call(() -> cache.get("other")));
+        reader.run(() -> cache.putExisting("other", "other"));
+        Assert.assertEquals("other", reader.call(() -> cache.get("other")));
+        writer.run(() -> cache.remove("key"));
+        final Tx concurrent = new Tx();
+        concurrent.run(() -> cache.remove("key"));
+        concurrent.rollback();
+        writer.commit();
+
+        final CacheStatistics statistics = cache.getStatistics().snapshot();
+        Assert.assertEquals(1, statistics.getL1Hits());
+        Assert.assertEquals(1, statistics.getL2Hits());
+        Assert.assertEquals(1, statistics.getMisses());
+        Assert.assertEquals(1, statistics.getPuts());
+        Assert.assertEquals(1, statistics.getInvalidations());
+        Assert.assertEquals(1, statistics.getConflicts());
+        cache.getStatistics().reset();
+        Assert.assertEquals(0, cache.getStatistics().getL2Hits());
+        Assert.assertEquals(1, statistics.getL2Hits());
+    }
+
+    /**
+     * Transaction, emulated on dedicated thread
+     */
+    private static class Tx {
+        private final ExecutorService thread = Executors.newSingleThreadExecutor();
+
+        Tx() {
+            run(() -> {
+                TransactionSynchronizationManager.initSynchronization();
+                TransactionSynchronizationManager.setActualTransactionActive(true);
+            });
+        }
+
+        void run(Runnable r) {
+            call(() -> {
+                r.run();
+                return null;
+            });
+        }
+
+        <T> T call(Callable<T> c) {
+            try {
+                return thread.submit(c).get();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void commit() {
+            run(() -> {
+                for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+                    s.beforeCommit(false);
+                }
+                for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+                    s.afterCommit();
+                }
+                complete(TransactionSynchronization.STATUS_COMMITTED);
+            });
+            thread.shutdown();
+        }
+
+        void rollback() {
+            run(() -> complete(TransactionSynchronization.STATUS_ROLLED_BACK));
+            thread.shutdown();
+        }
+
+        void close() {
+            if (!thread.isShutdown()) {
+                rollback();
+            }
+        }
+
+        private static void complete(int status) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+                    s.afterCompletion(status);
+                }
+                TransactionSynchronizationManager.clearSynchronization();
+                TransactionSynchronizationManager.setActualTransactionActive(false);
+            }
+        }
+    }
+}